@@ -0,0 +1,138 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The queries behind GET /scim/v2/Users and GET /scim/v2/Users/{id}, run through Hibernate against a seeded
+ * in-memory HSQLDB with the application's schema
+ * The JPQL mirrors {@link com.okta.scim.database.UserDatabase} and {@link com.okta.scim.database.GroupMembershipDatabase}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DatabaseBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int users;
+
+    int pageSize = 100;
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private List<String> pageIds;
+    private String lastIdBeforeEnd;
+    private String userName;
+
+    @Setup
+    public void setUp() throws SQLException {
+        sessionFactory = Fixtures.seededDatabase(users, 2);
+        session = sessionFactory.openSession();
+
+        // The deepest full page, which is where offset paging is slowest
+        lastIdBeforeEnd = Fixtures.userId(users - pageSize - 1);
+        pageIds = Fixtures.userIds(0, pageSize);
+        userName = Fixtures.userName(users / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public List<User> singleUser() {
+        session.clear();
+        return session.createQuery("SELECT u FROM User u WHERE u.id = :id", User.class)
+                .setParameter("id", pageIds.get(0))
+                .getResultList();
+    }
+
+    @Benchmark
+    public List<User> firstPage() {
+        session.clear();
+        return session.createQuery("SELECT u FROM User u ORDER BY u.id", User.class)
+                .setFirstResult(0)
+                .setMaxResults(pageSize)
+                .getResultList();
+    }
+
+    @Benchmark
+    public List<User> lastPageByOffset() {
+        session.clear();
+        return session.createQuery("SELECT u FROM User u ORDER BY u.id", User.class)
+                .setFirstResult(users - pageSize)
+                .setMaxResults(pageSize)
+                .getResultList();
+    }
+
+    @Benchmark
+    public List<User> lastPageByCursor() {
+        session.clear();
+        return session.createQuery("SELECT u FROM User u WHERE u.id > :after ORDER BY u.id", User.class)
+                .setParameter("after", lastIdBeforeEnd)
+                .setMaxResults(pageSize + 1)
+                .getResultList();
+    }
+
+    @Benchmark
+    public List<User> filterByUserName() {
+        session.clear();
+        return session.createQuery("SELECT u FROM User u WHERE u.userName = :name ORDER BY u.id", User.class)
+                .setParameter("name", userName)
+                .setMaxResults(pageSize)
+                .getResultList();
+    }
+
+    @Benchmark
+    public long countAll() {
+        return session.createQuery("SELECT COUNT(u) FROM User u", Long.class).getSingleResult();
+    }
+
+    @Benchmark
+    public long countByFamilyName() {
+        return session.createQuery("SELECT COUNT(u) FROM User u WHERE u.familyName = :name", Long.class)
+                .setParameter("name", "Family" + (users / 2))
+                .getSingleResult();
+    }
+
+    /**
+     * The groups of one page of users, loaded with one query and grouped by user as the list controllers do
+     */
+    @Benchmark
+    public Map<String, List<GroupMembership>> membershipExpansion() {
+        session.clear();
+        return session.createQuery("SELECT gm FROM GroupMembership gm WHERE gm.userId IN :userIds", GroupMembership.class)
+                .setParameter("userIds", pageIds)
+                .getResultList()
+                .stream()
+                .collect(Collectors.groupingBy(gm -> gm.userId));
+    }
+}
@@ -0,0 +1,197 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.Request;
+import com.okta.scim.models.Transaction;
+import com.okta.scim.models.User;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * Deterministic model instances shared by the benchmarks
+ */
+public class Fixtures {
+    private static final int GROUPS = 50;
+    private static final int INSERT_BATCH = 10000;
+
+    /**
+     * @param i The position of the user in ID order
+     * @return The ID of the i-th user, IDs sort in the same order as i
+     */
+    public static String userId(int i) {
+        return new UUID(0, i).toString();
+    }
+
+    /**
+     * @param i The position of the user in ID order
+     * @return The userName of the i-th user
+     */
+    public static String userName(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    /**
+     * @param from The position of the first user
+     * @param to The position after the last user
+     * @return The IDs of the users in the range
+     */
+    public static List<String> userIds(int from, int to) {
+        List<String> ids = new ArrayList<>(to - from);
+
+        for (int i = from; i < to; i++) {
+            ids.add(userId(i));
+        }
+
+        return ids;
+    }
+
+    /**
+     * @param count The number of users to create
+     * @return Active users with all name attributes set, ordered by ID
+     */
+    public static List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.id = userId(i);
+            user.userName = userName(i);
+            user.givenName = "Given" + i;
+            user.middleName = "Middle" + i;
+            user.familyName = "Family" + i;
+            user.active = true;
+            users.add(user);
+        }
+
+        return users;
+    }
+
+    /**
+     * @param users The users to create memberships for
+     * @param perUser The number of groups each user belongs to
+     * @return Memberships keyed by user ID, as built by the list controllers
+     */
+    public static Map<String, List<GroupMembership>> groupsByUser(List<User> users, int perUser) {
+        Map<String, List<GroupMembership>> groupsByUser = new HashMap<>();
+
+        for (User user: users) {
+            List<GroupMembership> gms = new ArrayList<>(perUser);
+
+            for (int g = 0; g < perUser; g++) {
+                GroupMembership gm = new GroupMembership();
+                gm.id = UUID.randomUUID().toString();
+                gm.groupId = new UUID(1, g).toString();
+                gm.groupDisplay = "Group" + g;
+                gm.userId = user.id;
+                gm.userDisplay = user.userName;
+                gms.add(gm);
+            }
+
+            groupsByUser.put(user.id, gms);
+        }
+
+        return groupsByUser;
+    }
+
+    /**
+     * Creates an in-memory HSQLDB with the schema Hibernate generates for the models, under the same naming
+     * strategies as the application, and fills it with users, groups and memberships
+     * @param users The number of users to insert, user i is {@link #userId(int)} / {@link #userName(int)}
+     * @param perUser The number of groups each user belongs to
+     * @return A {@link SessionFactory} over the seeded database, to be closed by the caller
+     */
+    public static SessionFactory seededDatabase(int users, int perUser) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting("hibernate.connection.url", "jdbc:hsqldb:mem:benchmark" + users)
+                .applySetting("hibernate.connection.username", "sa")
+                .applySetting("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+                .applySetting("hibernate.hbm2ddl.auto", "create")
+                .applySetting("hibernate.physical_naming_strategy", SpringPhysicalNamingStrategy.class.getName())
+                .applySetting("hibernate.implicit_naming_strategy", SpringImplicitNamingStrategy.class.getName())
+                .build();
+
+        SessionFactory sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(Group.class)
+                .addAnnotatedClass(GroupMembership.class)
+                .addAnnotatedClass(Request.class)
+                .addAnnotatedClass(Transaction.class)
+                .buildMetadata()
+                .buildSessionFactory();
+
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> {
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "INSERT INTO groups (id, display_name) VALUES (?, ?)")) {
+                    for (int g = 0; g < GROUPS; g++) {
+                        ps.setString(1, new UUID(1, g).toString());
+                        ps.setString(2, "Group" + g);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "INSERT INTO users (id, active, user_name, family_name, middle_name, given_name) VALUES (?, ?, ?, ?, ?, ?)");
+                     PreparedStatement gps = connection.prepareStatement(
+                        "INSERT INTO groupmemberships (id, group_id, user_id, group_display, user_display) VALUES (?, ?, ?, ?, ?)")) {
+                    for (int i = 0; i < users; i++) {
+                        ps.setString(1, userId(i));
+                        ps.setBoolean(2, i % 10 != 0);
+                        ps.setString(3, userName(i));
+                        ps.setString(4, "Family" + i);
+                        ps.setString(5, "Middle" + i);
+                        ps.setString(6, "Given" + i);
+                        ps.addBatch();
+
+                        for (int g = 0; g < perUser; g++) {
+                            int group = (i + g) % GROUPS;
+                            gps.setString(1, new UUID(2, (long) i * perUser + g).toString());
+                            gps.setString(2, new UUID(1, group).toString());
+                            gps.setString(3, userId(i));
+                            gps.setString(4, "Group" + group);
+                            gps.setString(5, userName(i));
+                            gps.addBatch();
+                        }
+
+                        if ((i + 1) % INSERT_BATCH == 0 || i == users - 1) {
+                            ps.executeBatch();
+                            gps.executeBatch();
+                            connection.commit();
+                        }
+                    }
+                }
+
+                connection.setAutoCommit(true);
+            });
+        }
+
+        return sessionFactory;
+    }
+}
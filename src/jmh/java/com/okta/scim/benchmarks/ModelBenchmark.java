@@ -0,0 +1,97 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.okta.scim.models.User;
+import com.okta.scim.utils.Filter;
+import com.okta.scim.utils.ListResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parsing and the HashMap representations of the models
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModelBenchmark {
+    private static final String USER_JSON = "{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"],"
+            + "\"userName\":\"user1@example.com\",\"name\":{\"givenName\":\"Given1\",\"middleName\":\"Middle1\","
+            + "\"familyName\":\"Family1\"},\"emails\":[{\"primary\":true,\"value\":\"user1@example.com\","
+            + "\"type\":\"work\"}],\"active\":true}";
+
+    private static final String FILTER = "userName eq \"user1@example.com\"";
+
+    private static final String COMPLEX_FILTER = "(name.familyName sw \"Fam\" or emails[type eq \"work\" and value co \"@example\"])"
+            + " and not (active eq false)";
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private Map<String, Object> userMap;
+    private User user;
+    private List<User> page;
+
+    @Setup
+    public void setUp() throws IOException {
+        userMap = mapper.readValue(USER_JSON, Map.class);
+        page = Fixtures.users(100);
+        user = page.get(0);
+    }
+
+    /**
+     * POST /scim/v2/Users: the request body as Spring hands it over, then the model
+     */
+    @Benchmark
+    public User parseUser() throws IOException {
+        return new User(mapper.readValue(USER_JSON, Map.class));
+    }
+
+    @Benchmark
+    public User userFromMap() {
+        return new User(userMap);
+    }
+
+    @Benchmark
+    public Map userToScimResource() {
+        return user.toScimResource();
+    }
+
+    @Benchmark
+    public HashMap<String, Object> listResponseToScimResource() {
+        return new ListResponse<>(page, Optional.of(1), Optional.of(100), Optional.of(100)).toScimResource();
+    }
+
+    /**
+     * The filter parsing in GET /scim/v2/Users, before the parsed filter cache
+     */
+    @Benchmark
+    public Filter parseFilter() {
+        return Filter.parse(FILTER);
+    }
+
+    @Benchmark
+    public Filter parseComplexFilter() {
+        return Filter.parse(COMPLEX_FILTER);
+    }
+}
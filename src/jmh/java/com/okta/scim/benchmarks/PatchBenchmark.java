@@ -0,0 +1,164 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.okta.scim.Application;
+import com.okta.scim.database.BulkInserter;
+import com.okta.scim.database.PersistenceMetrics;
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+
+/**
+ * PATCH /scim/v2/Users/{id} and /scim/v2/Groups/{id} through the application's controllers, on the hsqldb-mem profile
+ * Besides the time, the SQL statements each PATCH sends are counted by {@link PersistenceMetrics},
+ * reported as the "statements" and "patches" counters, a JDBC batch counts as one statement
+ * Requests are not audited, so only the statements of the PATCH itself are counted
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PatchBenchmark {
+    private static final String PATCH_OP = "{\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:PatchOp\"],\"Operations\":[%s]}";
+
+    /** The number of members of the patched group */
+    @Param({"100", "10000"})
+    int members;
+
+    private ConfigurableApplicationContext context;
+    private PersistenceMetrics metrics;
+    private MockMvc mvc;
+    private String userId;
+    private String groupId;
+    private String memberId;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = new SpringApplicationBuilder(Application.class)
+                .profiles("hsqldb-mem")
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                        "scim.audit.combined=true", "scim.index-advisor.enabled=false", "scim.retention.enabled=false")
+                .run();
+        metrics = context.getBean(PersistenceMetrics.class);
+        mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+
+        // The last user is kept out of the group, the member benchmark adds and removes it
+        List<User> users = Fixtures.users(members + 1);
+        Group group = new Group();
+        group.id = UUID.randomUUID().toString();
+        group.displayName = "Benchmark";
+        List<GroupMembership> memberships = new ArrayList<>(members);
+
+        for (User user: users.subList(0, members)) {
+            GroupMembership gm = new GroupMembership();
+            gm.id = UUID.randomUUID().toString();
+            gm.groupId = group.id;
+            gm.groupDisplay = group.displayName;
+            gm.userId = user.id;
+            gm.userDisplay = user.userName;
+            memberships.add(gm);
+        }
+
+        context.getBean(BulkInserter.class).insert(users, Collections.singletonList(group), memberships);
+        userId = users.get(0).id;
+        groupId = group.id;
+        memberId = users.get(members).id;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Counts the statements of the measured PATCH requests
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Statements {
+        public long statements;
+        public long patches;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+            patches = 0;
+        }
+    }
+
+    /**
+     * Deactivates and reactivates a user, Okta's most common PATCH
+     */
+    @Benchmark
+    public int userActive(Statements counter) throws Exception {
+        flip = !flip;
+        return send(counter, "/scim/v2/Users/" + userId,
+                "{\"op\":\"replace\",\"value\":{\"active\":" + flip + "}}");
+    }
+
+    /**
+     * Adds a member to the group, then removes it again
+     */
+    @Benchmark
+    public int groupMember(Statements counter) throws Exception {
+        flip = !flip;
+        return send(counter, "/scim/v2/Groups/" + groupId, flip
+                ? "{\"op\":\"add\",\"path\":\"members\",\"value\":[{\"value\":\"" + memberId + "\",\"display\":\"Member\"}]}"
+                : "{\"op\":\"remove\",\"path\":\"members[value eq \\\"" + memberId + "\\\"]\"}");
+    }
+
+    /**
+     * Renames the group, which also renames it in each membership
+     */
+    @Benchmark
+    public int groupDisplayName(Statements counter) throws Exception {
+        flip = !flip;
+        return send(counter, "/scim/v2/Groups/" + groupId,
+                "{\"op\":\"replace\",\"path\":\"displayName\",\"value\":\"Benchmark " + flip + "\"}");
+    }
+
+    private int send(Statements counter, String path, String operation) throws Exception {
+        long before = metrics.getStatementCount();
+        int length = mvc.perform(patch(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(String.format(PATCH_OP, operation)))
+                .andReturn().getResponse().getContentLength();
+
+        counter.statements += metrics.getStatementCount() - before;
+        counter.patches++;
+        return length;
+    }
+}
@@ -0,0 +1,94 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.okta.scim.dispatchers.CapturingResponseWrapper;
+import com.okta.scim.dispatchers.LoggingDispatcherServlet;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The body capture {@link LoggingDispatcherServlet} does around every SCIM call: wrapping the request and
+ * response, reading both bodies back for the audit row, the response goes to the client as it is written
+ * The servlet's own payload methods are called, the handler in between is replaced by plain reads and writes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PayloadCaptureBenchmark {
+    /** Response size in bytes, a single user and a page of about 50 users */
+    @Param({"600", "30000"})
+    int responseSize;
+
+    private byte[] requestBody;
+    private byte[] responseBody;
+    private MethodHandle getRequestPayload;
+    private MethodHandle getResponsePayload;
+
+    @Setup
+    public void setUp() throws Exception {
+        requestBody = ("{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"],\"userName\":\"user1@example.com\","
+                + "\"name\":{\"givenName\":\"Given1\",\"familyName\":\"Family1\"},\"active\":true}")
+                .getBytes(StandardCharsets.UTF_8);
+        responseBody = new byte[responseSize];
+        for (int i = 0; i < responseSize; i++) {
+            responseBody[i] = (byte) ('a' + i % 26);
+        }
+
+        LoggingDispatcherServlet servlet = new LoggingDispatcherServlet();
+        getRequestPayload = handle("getRequestPayload", HttpServletRequest.class).bindTo(servlet);
+        getResponsePayload = handle("getResponsePayload", HttpServletResponse.class).bindTo(servlet);
+    }
+
+    @Benchmark
+    public Object capture() throws Throwable {
+        MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/scim/v2/Users");
+        mockRequest.setContent(requestBody);
+        mockRequest.setCharacterEncoding("UTF-8");
+        MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+
+        ContentCachingRequestWrapper request = new ContentCachingRequestWrapper(mockRequest);
+        CapturingResponseWrapper response = new CapturingResponseWrapper(mockResponse, 5120);
+
+        // What the handler does: read the body, write the response
+        StreamUtils.copyToByteArray(request.getInputStream());
+        response.getOutputStream().write(responseBody);
+
+        String requestPayload = (String) getRequestPayload.invoke(request);
+        String responsePayload = (String) getResponsePayload.invoke(response);
+
+        return requestPayload.length() + responsePayload.length() + mockResponse.getContentAsByteArray().length;
+    }
+
+    private static MethodHandle handle(String name, Class<?> parameter) throws ReflectiveOperationException {
+        Method method = LoggingDispatcherServlet.class.getDeclaredMethod(name, parameter);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+}
@@ -0,0 +1,92 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import com.okta.scim.utils.ListResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the HashMap based toScimResource path with the streaming {@link ListResponse} path
+ * for a page of users from GET /scim/v2/Users, each with two groups
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+    @Param({"100", "1000"})
+    int pageSize;
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private List<User> users;
+    private Map<String, List<GroupMembership>> groupsByUser;
+    private ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setUp() {
+        users = Fixtures.users(pageSize);
+        groupsByUser = Fixtures.groupsByUser(users, 2);
+    }
+
+    /**
+     * The list response as built before streaming: maps for every resource, then walked by Jackson
+     */
+    @Benchmark
+    public int mapTree() throws IOException {
+        ListResponse<User> listResponse = new ListResponse<>(users, Optional.of(1),
+                Optional.of(pageSize), Optional.of(pageSize));
+        HashMap<String, Object> res = listResponse.toScimResource();
+
+        for (Map<String, Object> u: (List<Map<String, Object>>) res.get("Resources")) {
+            List<GroupMembership> gms = groupsByUser.get(u.get("id").toString());
+
+            if (gms != null) {
+                List<Map<String, Object>> groups = new ArrayList<>();
+                for (GroupMembership gm: gms) {
+                    groups.add(gm.toUserScimResource());
+                }
+                u.put("groups", groups);
+            }
+        }
+
+        out.reset();
+        mapper.writeValue(out, res);
+        return out.size();
+    }
+
+    /**
+     * The list response streamed straight to the generator
+     */
+    @Benchmark
+    public int streaming() throws IOException {
+        ListResponse<User> listResponse = new ListResponse<>(users, Optional.of(1),
+                Optional.of(pageSize), Optional.of(pageSize))
+                .setResourceWriter((u, gen) -> u.writeScimResource(gen, groupsByUser.get(u.id)));
+
+        out.reset();
+        mapper.writeValue(out, listResponse);
+        return out.size();
+    }
+}
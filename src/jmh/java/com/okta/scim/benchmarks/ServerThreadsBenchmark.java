@@ -0,0 +1,102 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import com.okta.scim.Application;
+import com.okta.scim.database.BulkInserter;
+import com.okta.scim.models.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load test of the embedded Tomcat, 1000 client threads each with a keep-alive connection sending
+ * GET /scim/v2/Users?filter=userName eq "..." back to back, on Tomcat's worker pool and on virtual threads
+ * Every request runs the list queries against the hsqldb-mem profile and is audited
+ * The virtual case needs Java 21, run Maven with it: JAVA_HOME=... mvn -P benchmark ... -Djmh.args="ServerThreadsBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Dhttp.maxConnections=1000",
+        "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@Threads(1000)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class ServerThreadsBenchmark {
+    private static final int USERS = 10000;
+
+    /** "platform" is Tomcat's pool of server.tomcat.max-threads, "virtual" sets scim.server.virtual-threads */
+    @Param({"platform", "virtual"})
+    String threads;
+
+    private ConfigurableApplicationContext context;
+    private List<User> users;
+    private String base;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = new SpringApplicationBuilder(Application.class)
+                .profiles("hsqldb-mem")
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                        "scim.index-advisor.enabled=false", "scim.retention.enabled=false",
+                        "scim.server.virtual-threads=" + threads.equals("virtual"))
+                .run();
+
+        users = Fixtures.users(USERS);
+        context.getBean(BulkInserter.class).insert(users, Collections.emptyList(), Collections.emptyList());
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/scim/v2/Users?filter=";
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int findUser() throws IOException {
+        User user = users.get(ThreadLocalRandom.current().nextInt(USERS));
+        URL url = new URL(base + URLEncoder.encode("userName eq \"" + user.userName + "\"", "UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int read = 0;
+
+        // Reading the body to the end returns the connection to the keep-alive cache
+        try (InputStream body = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+
+            for (int n; (n = body.read(buffer)) != -1; ) {
+                read += n;
+            }
+        }
+
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("HTTP " + connection.getResponseCode());
+        }
+
+        return read;
+    }
+}
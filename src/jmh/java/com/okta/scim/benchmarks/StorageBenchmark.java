@@ -0,0 +1,254 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Scanner;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * HSQLDB file databases with the default storage against the hsqldb-cached profile
+ * restart opens a database holding an audit log and reads the dashboard's first page of it,
+ * write records transactions from several threads at once, each reading the table in the same database transaction
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StorageBenchmark {
+    private static final String CREATE_TABLE = "CREATE TABLE transactions (id VARCHAR(36) NOT NULL PRIMARY KEY, "
+            + "request_id VARCHAR(36), time_stamp VARCHAR(255) NOT NULL, http_code INTEGER, method VARCHAR(20), "
+            + "endpoint VARCHAR(250), request_body LONGVARCHAR, response_body LONGVARCHAR, java_method VARCHAR(300))";
+    private static final String CREATE_INDEX = "CREATE INDEX idx_transactions_time_stamp ON transactions (time_stamp)";
+    private static final String INSERT = "INSERT INTO transactions "
+            + "(id, request_id, time_stamp, http_code, method, endpoint, request_body, response_body, java_method) "
+            + "VALUES (?, ?, ?, 200, 'GET', '/scim/v2/Users', ?, ?, 'UsersController.usersGet')";
+    private static final String BODY = new String(new char[1000]).replace('\0', 'x');
+
+    /**
+     * A database directory with the storage settings of a profile
+     */
+    @State(Scope.Benchmark)
+    public static class Storage {
+        /** "default" is application.properties, "hsqldb-cached" also runs db/hsqldb-cached.sql */
+        @Param({"default", "hsqldb-cached"})
+        String storage;
+
+        Path directory;
+        String url;
+
+        void create() throws IOException, SQLException {
+            directory = Files.createTempDirectory("storage-benchmark");
+            url = "jdbc:hsqldb:file:" + directory.resolve("data");
+
+            try (Connection connection = DriverManager.getConnection(url, "sa", "");
+                 Statement statement = connection.createStatement()) {
+                if (storage.equals("hsqldb-cached")) {
+                    for (String setting: settings()) {
+                        statement.execute(setting);
+                    }
+                }
+
+                statement.execute(CREATE_TABLE);
+                statement.execute(CREATE_INDEX);
+            }
+        }
+
+        void delete() throws IOException, SQLException {
+            try (Connection connection = DriverManager.getConnection(url + ";ifexists=true", "sa", "")) {
+                connection.createStatement().execute("SHUTDOWN");
+            }
+
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Restart extends Storage {
+        @Param({"200000"})
+        int transactions;
+
+        private Connection connection;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, SQLException {
+            create();
+
+            try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                    for (int i = 0; i < transactions; i++) {
+                        bind(insert, i);
+                        insert.addBatch();
+
+                        if (i % 10000 == 9999 || i == transactions - 1) {
+                            insert.executeBatch();
+                            connection.commit();
+                        }
+                    }
+                }
+
+                // Leaves the database as a clean shutdown of the application does
+                connection.createStatement().execute("SHUTDOWN");
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws SQLException {
+            connection.createStatement().execute("SHUTDOWN");
+            connection.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, SQLException {
+            delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes extends Storage {
+        /** Transaction control, separately from the rest of the storage settings */
+        @Param({"locks", "mvcc"})
+        String tx;
+
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, SQLException {
+            create();
+
+            try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+                connection.createStatement().execute("SET DATABASE TRANSACTION CONTROL " + tx.toUpperCase());
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, SQLException {
+            delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        private Connection connection;
+        private PreparedStatement insert;
+        private PreparedStatement recent;
+        private AtomicInteger sequence;
+
+        @Setup(Level.Trial)
+        public void open(Writes writes) throws SQLException {
+            sequence = writes.sequence;
+            connection = DriverManager.getConnection(writes.url, "sa", "");
+            connection.setAutoCommit(false);
+            insert = connection.prepareStatement(INSERT);
+            recent = connection.prepareStatement("SELECT COUNT(*) FROM transactions WHERE time_stamp > ?");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    /**
+     * Application startup: open the database and read the newest page of the audit log
+     */
+    @Benchmark
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 5)
+    public int restart(Restart restart) throws SQLException {
+        restart.connection = DriverManager.getConnection(restart.url + ";ifexists=true", "sa", "");
+        int rows = 0;
+
+        try (ResultSet page = restart.connection.createStatement().executeQuery(
+                "SELECT id, time_stamp FROM transactions ORDER BY time_stamp DESC LIMIT 100")) {
+            while (page.next()) {
+                rows++;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * A request being audited while other requests are
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int write(Session session) throws SQLException {
+        int i = session.sequence.incrementAndGet();
+
+        bind(session.insert, i);
+        session.insert.executeUpdate();
+
+        // The latest hundred transactions, so the read stays the same size as the table grows
+        session.recent.setString(1, timestamp(i - 100));
+        int recent;
+
+        try (ResultSet count = session.recent.executeQuery()) {
+            count.next();
+            recent = count.getInt(1);
+        }
+
+        session.connection.commit();
+        return recent;
+    }
+
+    private static void bind(PreparedStatement insert, int i) throws SQLException {
+        insert.setString(1, UUID.randomUUID().toString());
+        insert.setString(2, UUID.randomUUID().toString());
+        insert.setString(3, timestamp(i));
+        insert.setString(4, BODY);
+        insert.setString(5, BODY);
+    }
+
+    private static String timestamp(int i) {
+        return String.format("2018-01-01T%012d", i);
+    }
+
+    /**
+     * @return The statements of db/hsqldb-cached.sql
+     */
+    private static String[] settings() throws IOException {
+        try (InputStream in = StorageBenchmark.class.getResourceAsStream("/db/hsqldb-cached.sql");
+             Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+            String script = scanner.useDelimiter("\\A").next().replaceAll("(?m)^--.*$", "");
+
+            return Arrays.stream(script.split(";"))
+                    .map(String::trim)
+                    .filter(statement -> !statement.isEmpty())
+                    .toArray(String[]::new);
+        }
+    }
+}
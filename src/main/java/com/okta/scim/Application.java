@@ -21,11 +21,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletPathProvider;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.DispatcherServlet;
 
 @SpringBootApplication
+@EnableScheduling
 public class Application {
     private static Logger logger = LoggerFactory.getLogger(Application.class);
 
@@ -43,4 +46,13 @@ public class Application {
     public DispatcherServlet dispatcherServlet() {
         return new LoggingDispatcherServlet();
     }
+
+    /**
+     * Declared by Spring Boot along with its own dispatcher servlet, the actuator endpoints need it
+     * @return The path the dispatcher servlet is mapped under, the root
+     */
+    @Bean
+    public DispatcherServletPathProvider dispatcherServletPathProvider() {
+        return () -> "";
+    }
 }
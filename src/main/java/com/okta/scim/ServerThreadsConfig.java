@@ -0,0 +1,72 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim;
+
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs requests on virtual threads instead of Tomcat's worker pool when scim.server.virtual-threads is true
+ * A call blocked on the database then parks its virtual thread, rather than holding one of server.tomcat.max-threads
+ * Needs Java 21, the API is looked up at runtime so the application still builds for and runs on older versions
+ */
+@Configuration
+public class ServerThreadsConfig implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+    private Logger logger = LoggerFactory.getLogger(ServerThreadsConfig.class);
+
+    @Value("${scim.server.virtual-threads:false}")
+    boolean virtualThreads;
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        if (!virtualThreads) {
+            return;
+        }
+
+        ExecutorService executor = virtualThreadExecutor();
+        factory.addConnectorCustomizers(connector -> ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor));
+        logger.info("Requests run on virtual threads");
+    }
+
+    /**
+     * @return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory())
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "http-virtual-", 0L);
+            ThreadFactory threads = (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threads);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException("scim.server.virtual-threads needs Java 21 or later, this is Java "
+                    + System.getProperty("java.version"));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.controllers;
+
+import com.okta.scim.database.BulkInserter;
+import com.okta.scim.database.CountCache;
+import com.okta.scim.database.UserDatabase;
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+
+/**
+ *  URL route (root)/scim/v2/Bulk
+ *  Supports POST operations on /Users and /Groups, including group members referencing users by bulkId
+ */
+@Controller
+@RequestMapping("/scim/v2/Bulk")
+public class BulkController {
+    private static final String BULK_REQUEST = "urn:ietf:params:scim:api:messages:2.0:BulkRequest";
+    private static final String BULK_RESPONSE = "urn:ietf:params:scim:api:messages:2.0:BulkResponse";
+    private static final String BULK_ID_PREFIX = "bulkId:";
+
+    UserDatabase db;
+    BulkInserter inserter;
+    CountCache counts;
+    int maxOperations;
+    int batchSize;
+
+    @Autowired
+    public BulkController(UserDatabase db, BulkInserter inserter, CountCache counts,
+                          @Value("${scim.bulk.max-operations:1000}") int maxOperations,
+                          @Value("${scim.bulk.batch-size:500}") int batchSize) {
+        this.db = db;
+        this.inserter = inserter;
+        this.counts = counts;
+        this.maxOperations = maxOperations;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Processes a bulk request
+     * User operations run before group operations, so members can reference users created anywhere in the request
+     * Operations are stored batchSize at a time, each batch in one database transaction
+     * @param payload Payload from HTTP request
+     * @param response HTTP response
+     * @return {@link #scimError(String, Optional)} / JSON {@link Map} of the bulk response
+     */
+    @RequestMapping(method = RequestMethod.POST)
+    public @ResponseBody Map bulkPost(@RequestBody Map<String, Object> payload, HttpServletResponse response) {
+        List schema = (List)payload.get("schemas");
+        List<Map<String, Object>> operations = (List)payload.get("Operations");
+
+        if (schema == null) {
+            response.setStatus(400);
+            return scimError("Payload must contain schema attribute.", Optional.of(400));
+        }
+        if (operations == null) {
+            response.setStatus(400);
+            return scimError("Payload must contain operations attribute.", Optional.of(400));
+        }
+        if (!schema.contains(BULK_REQUEST)) {
+            response.setStatus(501);
+            return scimError("The 'schemas' type in this request is not supported.", Optional.of(501));
+        }
+        if (operations.size() > maxOperations) {
+            response.setStatus(413);
+            return scimError("The number of operations exceeds the maximum of " + maxOperations + ".", Optional.of(413));
+        }
+
+        Object failOnErrorsParam = payload.get("failOnErrors");
+        int failOnErrors = failOnErrorsParam instanceof Number && ((Number) failOnErrorsParam).intValue() > 0
+                ? ((Number) failOnErrorsParam).intValue() : Integer.MAX_VALUE;
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            if ("/Users".equals(operations.get(i).get("path"))) {
+                order.add(i);
+            }
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            if (!"/Users".equals(operations.get(i).get("path"))) {
+                order.add(i);
+            }
+        }
+
+        Batch batch = new Batch(findTakenUserNames(operations));
+        int errors = 0;
+
+        for (int index: order) {
+            if (errors >= failOnErrors) {
+                break;
+            }
+
+            Map<String, Object> error = batch.add(index, operations.get(index));
+
+            if (error != null) {
+                batch.results.put(index, error);
+                errors++;
+            } else if (batch.pending.size() >= batchSize) {
+                errors += flush(batch, failOnErrors - errors);
+            }
+        }
+        flush(batch, failOnErrors - errors);
+
+        // Membership filters count both resources
+        if (batch.storedUsers || batch.storedMemberships) {
+            counts.invalidate(User.class);
+        }
+        if (batch.storedGroups || batch.storedMemberships) {
+            counts.invalidate(Group.class);
+        }
+
+        Map<String, Object> returnValue = new HashMap<>();
+        returnValue.put("schemas", Collections.singletonList(BULK_RESPONSE));
+        returnValue.put("Operations", new ArrayList<>(batch.results.values()));
+        return returnValue;
+    }
+
+    /**
+     * Looks up which userNames of the user operations are already in use, batchSize names per query
+     * @param operations The bulk operations
+     * @return The userNames taken
+     */
+    private Set<String> findTakenUserNames(List<Map<String, Object>> operations) {
+        Set<String> taken = new HashSet<>();
+        List<String> names = new ArrayList<>();
+
+        for (Map<String, Object> op: operations) {
+            Object data = op.get("data");
+
+            if ("/Users".equals(op.get("path")) && data instanceof Map && ((Map) data).get("userName") != null) {
+                names.add(((Map) data).get("userName").toString());
+            }
+        }
+
+        for (int from = 0; from < names.size(); from += batchSize) {
+            taken.addAll(db.findUserNamesIn(names.subList(from, Math.min(names.size(), from + batchSize))));
+        }
+
+        return taken;
+    }
+
+    /**
+     * Inserts the pending operations in one transaction
+     * When that fails, retries them one at a time so that only the faulty operations are reported
+     * @param batch The operations to store
+     * @param budget The number of errors left before processing stops
+     * @return The number of operations that failed
+     */
+    private int flush(Batch batch, int budget) {
+        if (batch.pending.isEmpty()) {
+            return 0;
+        }
+
+        int errors = 0;
+
+        try {
+            batch.insert(batch.pending);
+        } catch (DataAccessException e) {
+            for (Pending p: batch.pending) {
+                if (errors >= budget) {
+                    batch.forget(p);
+                    continue;
+                }
+
+                try {
+                    String unresolved = batch.unresolved(p);
+
+                    if (unresolved != null) {
+                        batch.forget(p);
+                        batch.results.put(p.index, operationError(p.op, "Could not resolve bulkId '" + unresolved + "'.", 409));
+                        errors++;
+                    } else {
+                        batch.insert(Collections.singletonList(p));
+                    }
+                } catch (DataAccessException ex) {
+                    int status = ex instanceof DuplicateKeyException ? 409
+                            : ex instanceof DataIntegrityViolationException ? 400 : 500;
+                    batch.forget(p);
+                    batch.results.put(p.index, operationError(p.op, ex.getMostSpecificCause().getMessage(), status));
+                    errors++;
+                }
+            }
+        }
+
+        batch.pending.clear();
+        return errors;
+    }
+
+    /**
+     * Formats a successful operation for the bulk response
+     * @param op The bulk operation
+     * @param location Location of the created resource
+     * @return JSON {@link Map} of the operation result
+     */
+    private Map<String, Object> operationResult(Map<String, Object> op, String location) {
+        Map<String, Object> returnValue = new HashMap<>();
+        returnValue.put("method", op.get("method"));
+        returnValue.put("bulkId", op.get("bulkId"));
+        returnValue.put("location", location);
+        returnValue.put("status", "201");
+        return returnValue;
+    }
+
+    /**
+     * Formats a failed operation for the bulk response
+     * @param op The bulk operation
+     * @param message Scim error message
+     * @param status_code Response status code of the operation
+     * @return JSON {@link Map} of the operation result
+     */
+    private Map<String, Object> operationError(Map<String, Object> op, String message, int status_code) {
+        Map<String, Object> returnValue = new HashMap<>();
+        returnValue.put("method", op.get("method"));
+        returnValue.put("bulkId", op.get("bulkId"));
+        returnValue.put("status", String.valueOf(status_code));
+        returnValue.put("response", scimError(message, Optional.of(status_code)));
+        return returnValue;
+    }
+
+    /**
+     * Output custom error message with response code
+     * @param message Scim error message
+     * @param status_code Response status code
+     * @return JSON {@link Map} of the error
+     */
+    public Map scimError(String message, Optional<Integer> status_code){
+
+        Map<String, Object> returnValue = new HashMap<>();
+        List<String> schemas = new ArrayList<>();
+        schemas.add("urn:ietf:params:scim:api:messages:2.0:Error");
+        returnValue.put("schemas", schemas);
+        returnValue.put("detail", message);
+
+        // Set default to 500
+        returnValue.put("status", status_code.orElse(500));
+        return returnValue;
+    }
+
+    /**
+     * An operation that passed validation and waits to be inserted
+     */
+    private static class Pending {
+        private int index;
+        private Map<String, Object> op;
+        private String bulkId;
+        private User user;
+        private Group group;
+        private List<GroupMembership> members = new ArrayList<>();
+        private Set<String> references = new HashSet<>();
+    }
+
+    /**
+     * The state of a bulk request while it is being processed
+     */
+    private class Batch {
+        /** Operation results, by position in the request */
+        private final Map<Integer, Map<String, Object>> results = new TreeMap<>();
+        /** Resource IDs by bulkId, for operations that were stored or are pending */
+        private final Map<String, String> bulkIds = new HashMap<>();
+        private final Set<String> seenBulkIds = new HashSet<>();
+        private final Set<String> takenUserNames;
+        private final List<Pending> pending = new ArrayList<>();
+        private boolean storedUsers;
+        private boolean storedGroups;
+        private boolean storedMemberships;
+
+        private Batch(Set<String> takenUserNames) {
+            this.takenUserNames = takenUserNames;
+        }
+
+        /**
+         * Validates an operation and queues it for insertion
+         * @param index Position of the operation in the request
+         * @param op The bulk operation
+         * @return JSON {@link Map} of the operation error, or null if the operation was queued
+         */
+        private Map<String, Object> add(int index, Map<String, Object> op) {
+            String bulkId = op.get("bulkId") == null ? null : op.get("bulkId").toString();
+            Object data = op.get("data");
+            Object path = op.get("path");
+
+            if (!"POST".equals(op.get("method"))) {
+                return operationError(op, "Bulk method '" + op.get("method") + "' is not supported.", 501);
+            }
+            if (bulkId == null) {
+                return operationError(op, "POST operations must contain bulkId attribute.", 400);
+            }
+            if (!seenBulkIds.add(bulkId)) {
+                return operationError(op, "bulkId '" + bulkId + "' is used by more than one operation.", 400);
+            }
+            if (!(data instanceof Map)) {
+                return operationError(op, "Operation must contain data attribute.", 400);
+            }
+
+            Pending p = new Pending();
+            p.index = index;
+            p.op = op;
+            p.bulkId = bulkId;
+
+            if ("/Users".equals(path)) {
+                p.user = new User((Map<String, Object>) data);
+                p.user.id = UUID.randomUUID().toString();
+
+                if (p.user.userName == null) {
+                    return operationError(op, "User must contain userName and name attributes.", 400);
+                }
+                if (!takenUserNames.add(p.user.userName)) {
+                    return operationError(op, "User '" + p.user.userName + "' already exists.", 409);
+                }
+            } else if ("/Groups".equals(path)) {
+                Map<String, Object> resource = (Map<String, Object>) data;
+                p.group = new Group(resource);
+                p.group.id = UUID.randomUUID().toString();
+
+                if (p.group.displayName == null) {
+                    return operationError(op, "Group must contain displayName attribute.", 400);
+                }
+
+                if (resource.get("members") instanceof List) {
+                    Set<String> memberIds = new HashSet<>();
+
+                    for (Map<String, Object> member: (List<Map<String, Object>>) resource.get("members")) {
+                        GroupMembership membership = new GroupMembership(member);
+                        membership.id = UUID.randomUUID().toString();
+                        membership.groupId = p.group.id;
+                        membership.groupDisplay = p.group.displayName;
+
+                        if (membership.userId == null) {
+                            return operationError(op, "Group members must contain value attribute.", 400);
+                        }
+
+                        if (membership.userId.startsWith(BULK_ID_PREFIX)) {
+                            String reference = membership.userId.substring(BULK_ID_PREFIX.length());
+                            membership.userId = bulkIds.get(reference);
+
+                            if (membership.userId == null) {
+                                return operationError(op, "Could not resolve bulkId '" + reference + "'.", 409);
+                            }
+                            p.references.add(reference);
+                        }
+
+                        // A user is a member once, (groupId, userId) is unique
+                        if (memberIds.add(membership.userId)) {
+                            p.members.add(membership);
+                        }
+                    }
+                }
+            } else {
+                return operationError(op, "Bulk path '" + path + "' is not supported.", 400);
+            }
+
+            bulkIds.put(bulkId, p.user != null ? p.user.id : p.group.id);
+            pending.add(p);
+            return null;
+        }
+
+        /**
+         * @param p A pending operation
+         * @return A bulkId the operation references that has since failed, or null if all resolve
+         */
+        private String unresolved(Pending p) {
+            for (String reference: p.references) {
+                if (!bulkIds.containsKey(reference)) {
+                    return reference;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Removes a failed or skipped operation, so that nothing can reference it
+         * @param p A pending operation
+         */
+        private void forget(Pending p) {
+            bulkIds.remove(p.bulkId);
+
+            if (p.user != null) {
+                takenUserNames.remove(p.user.userName);
+            }
+        }
+
+        /**
+         * Inserts operations in one transaction and records them as created
+         * @param operations The pending operations
+         */
+        private void insert(List<Pending> operations) {
+            List<User> users = new ArrayList<>();
+            List<Group> groups = new ArrayList<>();
+            List<GroupMembership> memberships = new ArrayList<>();
+
+            for (Pending p: operations) {
+                if (p.user != null) {
+                    users.add(p.user);
+                } else {
+                    groups.add(p.group);
+                    memberships.addAll(p.members);
+                }
+            }
+
+            inserter.insert(users, groups, memberships);
+
+            for (Pending p: operations) {
+                String location = p.user != null ? "/scim/v2/Users/" + p.user.id : "/scim/v2/Groups/" + p.group.id;
+                results.put(p.index, operationResult(p.op, location));
+            }
+
+            storedUsers |= !users.isEmpty();
+            storedGroups |= !groups.isEmpty();
+            storedMemberships |= !memberships.isEmpty();
+        }
+    }
+}
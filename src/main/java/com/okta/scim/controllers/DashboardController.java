@@ -0,0 +1,249 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.controllers;
+
+import com.okta.scim.database.*;
+import com.okta.scim.models.*;
+import com.okta.scim.utils.OffsetPageRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ *  URL route (root)/dashboard for the tables of the home page, one page at a time
+ *  Responses use the DataTables server-side processing format
+ */
+@Controller
+@RequestMapping("/dashboard")
+public class DashboardController {
+    private UserDatabase uDb;
+    private GroupDatabase gDb;
+    private TransactionDatabase tDb;
+    private RequestDatabase rDb;
+    private GroupMembershipDatabase gmDb;
+    private int maxPageSize;
+
+    @Autowired
+    public DashboardController(
+            UserDatabase uDb,
+            GroupDatabase gDb,
+            TransactionDatabase tDb,
+            RequestDatabase rDb,
+            GroupMembershipDatabase gmDb,
+            @Value("${scim.dashboard.max-page-size:100}") int maxPageSize) {
+        this.uDb = uDb;
+        this.gDb = gDb;
+        this.tDb = tDb;
+        this.rDb = rDb;
+        this.gmDb = gmDb;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Outputs a page of users, ordered by userName
+     * @param params DataTables parameters: draw, start and length
+     * @return JSON {@link Map} of the page
+     */
+    @RequestMapping(value = "/users", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> users(@RequestParam Map<String, String> params) {
+        Page<User> page = uDb.findAll(pageable(params, Sort.by("userName")));
+
+        return table(params, page, user -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", user.id);
+            row.put("userName", user.userName);
+            row.put("givenName", user.givenName);
+            row.put("familyName", user.familyName);
+            row.put("active", user.active);
+            return row;
+        });
+    }
+
+    /**
+     * Outputs a page of groups, ordered by displayName
+     * @param params DataTables parameters: draw, start and length
+     * @return JSON {@link Map} of the page
+     */
+    @RequestMapping(value = "/groups", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> groups(@RequestParam Map<String, String> params) {
+        Page<Group> page = gDb.findAll(pageable(params, Sort.by("displayName")));
+
+        return table(params, page, group -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", group.id);
+            row.put("displayName", group.displayName);
+            return row;
+        });
+    }
+
+    /**
+     * Outputs a page of group memberships, ordered by group
+     * @param params DataTables parameters: draw, start and length
+     * @return JSON {@link Map} of the page
+     */
+    @RequestMapping(value = "/memberships", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> memberships(@RequestParam Map<String, String> params) {
+        Page<GroupMembership> page = gmDb.findAll(pageable(params, Sort.by("groupId", "userId")));
+
+        return table(params, page, gm -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", gm.id);
+            row.put("groupId", gm.groupId);
+            row.put("userId", gm.userId);
+            row.put("groupDisplay", gm.groupDisplay);
+            row.put("userDisplay", gm.userDisplay);
+            return row;
+        });
+    }
+
+    /**
+     * Outputs a page of transactions, newest first, with their timings but without the request and response bodies
+     * @param params DataTables parameters: draw, start and length
+     * @return JSON {@link Map} of the page
+     */
+    @RequestMapping(value = "/transactions", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> transactions(@RequestParam Map<String, String> params) {
+        Page<TransactionDatabase.Summary> page = tDb.findSummaries(
+                pageable(params, Sort.by(Sort.Direction.DESC, "timeStamp")));
+
+        return table(params, page, transaction -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", transaction.getId());
+            row.put("requestId", transaction.getRequestId());
+            row.put("timeStamp", transaction.getTimeStamp());
+            row.put("httpCode", transaction.getHttpCode());
+            row.put("method", transaction.getMethod());
+            row.put("endpoint", transaction.getEndpoint());
+            row.put("javaMethod", transaction.getJavaMethod());
+            row.put("handlerMs", transaction.getHandlerMs());
+            row.put("dbStatements", transaction.getDbStatements());
+            row.put("dbMs", transaction.getDbMs());
+            row.put("serializationMs", transaction.getSerializationMs());
+            row.put("auditMs", transaction.getAuditMs());
+            row.put("hasBodies", transaction.getHasBodies());
+            return row;
+        });
+    }
+
+    /**
+     * Outputs a single transaction, including its request and response bodies
+     * @param id The ID of the transaction
+     * @param response HTTP Response
+     * @return JSON {@link Map} of the transaction
+     */
+    @RequestMapping(value = "/transactions/{id}", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> transaction(@PathVariable String id, HttpServletResponse response) {
+        List<Transaction> transactions = tDb.findById(id);
+
+        if (transactions.isEmpty()) {
+            response.setStatus(404);
+            return Collections.singletonMap("detail", "Transaction not found");
+        }
+
+        Transaction transaction = transactions.get(0);
+        Map<String, Object> returnValue = new HashMap<>();
+        returnValue.put("id", transaction.id);
+        returnValue.put("requestId", transaction.requestId);
+        returnValue.put("timeStamp", transaction.timeStamp);
+        returnValue.put("httpCode", transaction.httpCode);
+        returnValue.put("method", transaction.method);
+        returnValue.put("endpoint", transaction.endpoint);
+        returnValue.put("javaMethod", transaction.javaMethod);
+        returnValue.put("requestBody", transaction.requestBody);
+        returnValue.put("responseBody", transaction.responseBody);
+        returnValue.put("handlerMs", transaction.handlerMs);
+        returnValue.put("dbStatements", transaction.dbStatements);
+        returnValue.put("dbMs", transaction.dbMs);
+        returnValue.put("serializationMs", transaction.serializationMs);
+        returnValue.put("auditMs", transaction.auditMs);
+        return returnValue;
+    }
+
+    /**
+     * Outputs a page of requests, newest first
+     * @param params DataTables parameters: draw, start and length
+     * @return JSON {@link Map} of the page
+     */
+    @RequestMapping(value = "/requests", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> requests(@RequestParam Map<String, String> params) {
+        Page<Request> page = rDb.findAll(pageable(params, Sort.by(Sort.Direction.DESC, "timeStamp")));
+
+        return table(params, page, request -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", request.id);
+            row.put("timeStamp", request.timeStamp);
+            row.put("method", request.method);
+            row.put("endpoint", request.endpoint);
+            return row;
+        });
+    }
+
+    /**
+     * Reads start and length, capping the page at scim.dashboard.max-page-size rows
+     * A missing, negative (DataTables' "All") or invalid length returns the largest page
+     */
+    private Pageable pageable(Map<String, String> params, Sort sort) {
+        long start = Math.max(0, parse(params.get("start"), 0));
+        long length = parse(params.get("length"), maxPageSize);
+
+        if (length < 1 || length > maxPageSize) {
+            length = maxPageSize;
+        }
+
+        return new OffsetPageRequest(start, (int) length, sort);
+    }
+
+    private long parse(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param params The DataTables parameters, draw is echoed back
+     * @param page The rows
+     * @param row Maps each row to the columns shown
+     * @return JSON {@link Map} of the page
+     */
+    private <T> Map<String, Object> table(Map<String, String> params, Page<T> page, Function<T, Map<String, Object>> row) {
+        List<Map<String, Object>> data = new ArrayList<>();
+
+        for (T item: page.getContent()) {
+            data.add(row.apply(item));
+        }
+
+        Map<String, Object> returnValue = new HashMap<>();
+        returnValue.put("draw", parse(params.get("draw"), 0));
+        returnValue.put("recordsTotal", page.getTotalElements());
+        returnValue.put("recordsFiltered", page.getTotalElements());
+        returnValue.put("data", data);
+        return returnValue;
+    }
+}
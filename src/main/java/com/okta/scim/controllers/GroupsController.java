@@ -15,21 +15,25 @@
 
 package com.okta.scim.controllers;
 
+import com.okta.scim.database.CountCache;
+import com.okta.scim.database.FilterQueries;
 import com.okta.scim.database.GroupDatabase;
 import com.okta.scim.database.GroupMembershipDatabase;
 import com.okta.scim.models.Group;
 import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import com.okta.scim.utils.Chunks;
+import com.okta.scim.utils.Cursor;
+import com.okta.scim.utils.Filter;
+import com.okta.scim.utils.InvalidFilterException;
 import com.okta.scim.utils.ListResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  *  URL route (root)/scim/v2/Groups
@@ -39,22 +43,26 @@ import java.util.regex.Pattern;
 public class GroupsController {
     GroupDatabase db;
     GroupMembershipDatabase gmDb;
+    CountCache counts;
+    FilterQueries queries;
 
     @Autowired
-    public GroupsController(GroupDatabase db, GroupMembershipDatabase gmDb) {
+    public GroupsController(GroupDatabase db, GroupMembershipDatabase gmDb, CountCache counts, FilterQueries queries) {
         this.db = db;
         this.gmDb = gmDb;
+        this.counts = counts;
+        this.queries = queries;
     }
 
     /**
-     * Support pagination and filtering by displayName
+     * Support pagination and SCIM filters, see {@link FilterQueries} for the supported attributes
+     * Pages by startIndex, or by keyset when the request carries a cursor parameter (empty for the first page)
      * @param params Payload from HTTP request
-     * @return JSON {@link Map} {@link ListResponse}
+     * @param response HTTP response
+     * @return {@link ListResponse}, streamed as JSON / {@link #scimError(String, Optional)}
      */
     @RequestMapping(method = RequestMethod.GET)
-    public @ResponseBody Map groupsGet(@RequestParam Map<String, String> params) {
-        Page<Group> groups;
-
+    public @ResponseBody Object groupsGet(@RequestParam Map<String, String> params, HttpServletResponse response) {
         // If not given count, default to 100
         int count = (params.get("count") != null) ? Integer.parseInt(params.get("count")) : 100;
 
@@ -64,68 +72,99 @@ public class GroupsController {
         if(startIndex < 1){
             startIndex = 1;
         }
-        startIndex -=1;
-
-        PageRequest pageRequest = new PageRequest(startIndex, count);
-
-        String filter = params.get("filter");
-        if (filter != null && filter.contains("eq")) {
-            String regex = "(\\w+) eq \"([^\"]*)\"";
-            Pattern response = Pattern.compile(regex);
-
-            Matcher match = response.matcher(filter);
-            Boolean found = match.find();
-            if (found) {
-                String searchKeyName = match.group(1);
-                String searchValue = match.group(2);
-                switch (searchKeyName) {
-                    case "displayName":
-                        groups = db.findByDisplayname(searchValue, pageRequest);
-                        break;
-                    default:
-                        groups = db.findByDisplayname(searchValue, pageRequest);
-                        break;
-                }
-            } else {
-                groups = db.findAll(pageRequest);
+
+        // A negative count is interpreted as 0, only totalResults is returned
+        if (count < 0) {
+            count = 0;
+        }
+
+        Filter filter;
+
+        try {
+            filter = queries.parse(params.get("filter"));
+        } catch (InvalidFilterException e) {
+            response.setStatus(400);
+            return invalidFilter(e);
+        }
+
+        String cursor = params.get("cursor");
+        String after = null;
+
+        if (cursor != null) {
+            try {
+                after = Cursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                response.setStatus(400);
+                return scimError("The cursor is invalid.", Optional.of(400));
             }
-        } else {
-            groups = db.findAll(pageRequest);
         }
 
-        List<Group> foundGroups = groups.getContent();
-        int totalResults = foundGroups.size();
+        int totalResults;
+        Stream<Group> foundGroups;
+
+        try {
+            totalResults = (int) count(filter);
+
+            // With a cursor, read one extra row to know whether another page follows
+            foundGroups = cursor != null
+                    ? queries.stream(Group.class, filter, after, 0, count + 1)
+                    : queries.stream(Group.class, filter, null, startIndex - 1, count);
+        } catch (InvalidFilterException e) {
+            response.setStatus(400);
+            return invalidFilter(e);
+        }
+
+        // Rows are read while the response is written, the persistence context and membersByGroup only hold one chunk
+        Map<String, List<GroupMembership>> membersByGroup = new HashMap<>();
+        Stream<Group> page = Chunks.of(foundGroups, queries.getFetchSize(), chunk -> {
+            queries.clear();
+            membersByGroup.clear();
+            membersByGroup.putAll(findMembers(chunk));
+        });
 
         // Convert optional values into Optionals for ListResponse Constructor
-        ListResponse<Group> returnValue = new ListResponse<>(foundGroups, Optional.of(startIndex),
+        ListResponse<Group> returnValue = new ListResponse<>(page, cursor != null ? Optional.empty() : Optional.of(startIndex),
                 Optional.of(count), Optional.of(totalResults));
-        HashMap<String, Object> res = returnValue.toScimResource();
-        ArrayList<HashMap<String, Object>> resG = (ArrayList) res.get("Resources");
-        ArrayList<HashMap<String, Object>> resGN = new ArrayList<>();
 
-        for (HashMap<String, Object> g: resG) {
-            PageRequest pReq = new PageRequest(0, Integer.MAX_VALUE);
-            Page<GroupMembership> pg = gmDb.findByGroupId(g.get("id").toString(), pReq);
+        if (cursor != null) {
+            returnValue.setCursorPaging(g -> g.id);
+        }
 
-            if (!pg.hasContent()) {
-                continue;
-            }
+        return returnValue.setResourceWriter((g, gen) -> g.writeScimResource(gen, membersByGroup.get(g.id)));
+    }
 
-            List<GroupMembership> gmList = pg.getContent();
-            ArrayList<Map<String, Object>> gms = new ArrayList<>();
+    /**
+     * Counts the {@link Group} matching a filter through the {@link CountCache}
+     * @param filter The parsed filter, or null for all groups
+     * @return The number of matching groups
+     */
+    private long count(Filter filter) {
+        return counts.get(Group.class, FilterQueries.countKey(filter), () -> queries.count(Group.class, filter));
+    }
 
-            for (GroupMembership gm: gmList) {
-                gms.add(gm.toScimResource());
-            }
+    /**
+     * Loads the members of every given {@link Group} with a single query
+     * @param groups The {@link Group} instances of the current chunk
+     * @return {@link GroupMembership} instances, keyed by {@link Group#id}
+     */
+    private Map<String, List<GroupMembership>> findMembers(List<Group> groups) {
+        Map<String, List<GroupMembership>> membersByGroup = new HashMap<>();
 
-            g.put("members", gms);
-            resGN.add(g);
+        if (groups.isEmpty()) {
+            return membersByGroup;
         }
 
-        res.remove("Resources");
-        res.put("Resources", resGN);
+        List<String> groupIds = new ArrayList<>(groups.size());
 
-        return res;
+        for (Group group: groups) {
+            groupIds.add(group.id);
+        }
+
+        for (GroupMembership gm: gmDb.findByGroupIdIn(groupIds)) {
+            membersByGroup.computeIfAbsent(gm.groupId, k -> new ArrayList<>()).add(gm);
+        }
+
+        return membersByGroup;
     }
 
     /**
@@ -140,25 +179,71 @@ public class GroupsController {
 
         newGroup.id = UUID.randomUUID().toString();
         db.save(newGroup);
+        counts.invalidate(Group.class);
 
         HashMap<String, Object> res = newGroup.toScimResource();
 
         if (params.containsKey("members")) {
             ArrayList<Map<String, Object>> members = (ArrayList<Map<String, Object>>) params.get("members");
+            Map<Object, Map<String, Object>> added = new LinkedHashMap<>();
+            List<GroupMembership> memberships = new ArrayList<>(members.size());
 
             for(Map<String, Object> member: members) {
+                // A user is a member once, (groupId, userId) is unique
+                if (added.putIfAbsent(member.get("value"), member) != null) {
+                    continue;
+                }
+
                 GroupMembership membership = new GroupMembership(member);
                 membership.id = UUID.randomUUID().toString();
                 membership.groupId = newGroup.id;
                 membership.groupDisplay = newGroup.displayName;
 
-                gmDb.save(membership);
+                memberships.add(membership);
+            }
+
+            // One transaction, so the inserts can go out as JDBC batches
+            gmDb.saveAll(memberships);
+
+            // Membership filters on users count the new members
+            if (!memberships.isEmpty()) {
+                counts.invalidate(User.class);
             }
 
-            res.put("members", members);
+            res.put("members", new ArrayList<>(added.values()));
         }
 
         response.setStatus(201);
         return res;
     }
+
+    /**
+     * Output the error for a filter that cannot be parsed or is not supported
+     * @param e The parse error
+     * @return JSON {@link Map} of the error
+     */
+    private Map invalidFilter(InvalidFilterException e) {
+        Map error = scimError(e.getMessage(), Optional.of(400));
+        error.put("scimType", "invalidFilter");
+        return error;
+    }
+
+    /**
+     * Output custom error message with response code
+     * @param message Scim error message
+     * @param status_code Response status code
+     * @return JSON {@link Map} of the error
+     */
+    public Map scimError(String message, Optional<Integer> status_code){
+
+        Map<String, Object> returnValue = new HashMap<>();
+        List<String> schemas = new ArrayList<>();
+        schemas.add("urn:ietf:params:scim:api:messages:2.0:Error");
+        returnValue.put("schemas", schemas);
+        returnValue.put("detail", message);
+
+        // Set default to 500
+        returnValue.put("status", status_code.orElse(500));
+        return returnValue;
+    }
 }
@@ -1,18 +1,28 @@
 package com.okta.scim.controllers;
 
+import com.okta.scim.database.CountCache;
 import com.okta.scim.database.GroupDatabase;
 import com.okta.scim.database.GroupMembershipDatabase;
+import com.okta.scim.database.GroupWriter;
 import com.okta.scim.models.Group;
 import com.okta.scim.models.GroupMembership;
 import com.okta.scim.models.User;
+import com.okta.scim.utils.ETags;
+import com.okta.scim.utils.Filter;
+import com.okta.scim.utils.InvalidAttributeException;
+import com.okta.scim.utils.InvalidFilterException;
+import com.okta.scim.utils.ScimResourceCache;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
-import java.lang.reflect.Field;
 import java.util.*;
 
 /**
@@ -23,155 +33,432 @@ import java.util.*;
 public class SingleGroupController {
     GroupDatabase db;
     GroupMembershipDatabase gmDb;
+    CountCache counts;
+    ScimResourceCache cache;
+    GroupWriter writer;
 
     @Autowired
-    public SingleGroupController(GroupDatabase db, GroupMembershipDatabase gmDb) {
+    public SingleGroupController(GroupDatabase db, GroupMembershipDatabase gmDb, CountCache counts,
+                                 ScimResourceCache cache, GroupWriter writer) {
         this.db = db;
         this.gmDb = gmDb;
+        this.counts = counts;
+        this.cache = cache;
+        this.writer = writer;
     }
 
     /**
-     * Queries database for {@link Group} with identifier
+     * Queries the {@link ScimResourceCache}, then the database, for {@link Group} with identifier
      * Updates response code with '404' if unable to locate {@link Group}
+     * Responds '304' without a body when the If-None-Match header holds the current version
      * @param id {@link Group#id}
-     * @param response HTTP Response
-     * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link Group}
+     * @return {@link #scimError(String, Optional)} / JSON of {@link Group}
      */
     @RequestMapping(method = RequestMethod.GET)
-    public @ResponseBody
-    Map singeGroupGet(@PathVariable String id, HttpServletResponse response) {
+    public ResponseEntity<?> singeGroupGet(@PathVariable String id) {
+        ScimResourceCache.Entry group = cache.get(Group.class, id, () -> loadGroup(id));
 
-        try {
-            Group group = db.findById(id).get(0);
-            HashMap res = group.toScimResource();
+        if (group == null) {
+            return ResponseEntity.status(404).body(scimError("Group not found", Optional.of(404)));
+        }
 
-            PageRequest pageRequest = new PageRequest(0, Integer.MAX_VALUE);
-            Page<GroupMembership> gmPage = gmDb.findByGroupId(id, pageRequest);
-            List<GroupMembership> gmList = gmPage.getContent();
-            ArrayList<Map<String, Object>> gmAL = new ArrayList<>();
+        // Spring answers If-None-Match from the ETag, dropping the body
+        return ResponseEntity.ok().eTag(group.version).contentType(MediaType.APPLICATION_JSON_UTF8).body(group.json);
+    }
 
-            for (GroupMembership gm: gmList) {
-                gmAL.add(gm.toScimResource());
-            }
+    /**
+     * Loads a {@link Group} and its members from the database
+     * @param id {@link Group#id}
+     * @return {@link ScimResourceCache.Entry} of the {@link Group}, or null if it does not exist
+     */
+    private ScimResourceCache.Entry loadGroup(String id) {
+        List<Group> found = db.findById(id);
 
-            res.put("members", gmAL);
-            return res;
-        } catch (Exception e) {
-            response.setStatus(404);
-            return scimError("Group not found", Optional.of(404));
+        if (found.isEmpty()) {
+            return null;
         }
+
+        Group group = found.get(0);
+        PageRequest pageRequest = new PageRequest(0, Integer.MAX_VALUE);
+        List<GroupMembership> gmList = gmDb.findByGroupId(id, pageRequest).getContent();
+
+        return cache.entry(ETags.of(group.version), gen -> group.writeScimResource(gen, gmList));
     }
 
     /**
      * Update via Put {@link Group} attributes
      * @param payload Payload from HTTP request
      * @param id {@link Group#id}
-     * @return JSON {@link Map} of {@link Group}
+     * @param ifMatch The versions the client expects the {@link Group} to be at, or null to update any version
+     * @param response HTTP Response
+     * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link Group}
      */
     @RequestMapping(method = RequestMethod.PUT)
     public @ResponseBody Map singleGroupPut(@RequestBody Map<String, Object> payload,
-                                            @PathVariable String id) {
-        Group group = db.findById(id).get(0);
+                                            @PathVariable String id,
+                                            @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                            HttpServletResponse response) {
+        List<Group> found = db.findById(id);
+
+        if (found.isEmpty()) {
+            response.setStatus(404);
+            return scimError("Group '" + id + "' was not found.", Optional.of(404));
+        }
+
+        Group group = found.get(0);
+
+        if (!ETags.matches(ifMatch, ETags.of(group.version))) {
+            return preconditionFailed(response);
+        }
+
         group.update(payload);
+
+        try {
+            group = db.save(group);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            return conflict(response, ifMatch);
+        }
+
+        counts.invalidate(Group.class);
+        cache.invalidate(Group.class, id);
+        response.setHeader(HttpHeaders.ETAG, ETags.of(group.version));
         return group.toScimResource();
     }
 
     /**
      * Update via Patch {@link Group} attributes
+     * The group and its members are read once, the operations are applied to them in memory, in order,
+     * and the net change is written in a single database transaction, see {@link GroupWriter}
      * @param payload Payload from HTTP request
      * @param id {@link Group#id}
+     * @param ifMatch The versions the client expects the {@link Group} to be at, or null to update any version
+     * @param response HTTP Response
      * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link Group}
      */
     @RequestMapping(method = RequestMethod.PATCH)
     public @ResponseBody Map singleGroupPatch(@RequestBody Map<String, Object> payload,
-                                              @PathVariable String id) {
+                                              @PathVariable String id,
+                                              @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                              HttpServletResponse response) {
         List schema = (List)payload.get("schemas");
         List<Map> operations = (List)payload.get("Operations");
 
         if(schema == null){
+            response.setStatus(400);
             return scimError("Payload must contain schema attribute.", Optional.of(400));
         }
         if(operations == null){
+            response.setStatus(400);
             return scimError("Payload must contain operations attribute.", Optional.of(400));
         }
 
         //Verify schema
         String schemaPatchOp = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
         if (!schema.contains(schemaPatchOp)){
+            response.setStatus(501);
             return scimError("The 'schemas' type in this request is not supported.", Optional.of(501));
         }
 
-        int found = db.findById(id).size();
+        List<Group> found = db.findById(id);
 
-        if (found == 0) {
+        if (found.isEmpty()) {
+            response.setStatus(404);
             return scimError("Group '" + id + "' was not found.", Optional.of(404));
         }
 
-        //Find user for update
-        Group group = db.findById(id).get(0);
+        Group group = found.get(0);
 
-        HashMap res = group.toScimResource();
-
-        for(Map map : operations){
-            if(map.get("op")==null){
-                continue;
-            }
-
-            if (map.get("op").equals("replace")) {
-                Map<String, Object> value = (Map) map.get("userId");
+        if (!ETags.matches(ifMatch, ETags.of(group.version))) {
+            return preconditionFailed(response);
+        }
 
-                // Use Java reflection to find and set User attribute
-                if (value != null) {
-                    for (Map.Entry key : value.entrySet()) {
-                        try {
-                            Field field = group.getClass().getDeclaredField(key.getKey().toString());
-                            field.set(group, key.getValue());
-                        } catch (NoSuchFieldException | IllegalAccessException e) {
-                            // Error - Do not update field
-                        }
-                    }
+        MemberChanges members = new MemberChanges(gmDb.findMembers(id));
+        boolean attributesChanged = false;
 
-                    db.save(group);
-                }
-            } else if (map.get("op").equals("add")) {
-                if (!map.get("path").equals("members")) {
+        try {
+            for (Map map : operations) {
+                if (map.get("op") == null) {
                     continue;
                 }
 
-                ArrayList<Map<String, Object>> value = (ArrayList) map.get("userId");
+                String op = map.get("op").toString().toLowerCase();
+                String path = map.get("path") == null ? null : map.get("path").toString();
+                Object value = map.containsKey("value") ? map.get("value") : map.get("userId");
 
-                if (value != null && !value.isEmpty()) {
-                    for (Map val: value) {
-                        PageRequest pageRequest = new PageRequest(0, Integer.MAX_VALUE);
-                        Page<GroupMembership> gmPage = gmDb.findByGroupIdAndUserId(id, val.get("userId").toString(), pageRequest);
+                if (path == null) {
+                    if (!(value instanceof Map)) {
+                        continue;
+                    }
 
-                        if (gmPage.hasContent()) {
-                            continue;
-                        }
+                    Map<String, Object> attributes = new HashMap<>((Map<String, Object>) value);
+                    Object memberValues = attributes.remove("members");
 
-                        GroupMembership gm = new GroupMembership(val);
-                        gm.id = UUID.randomUUID().toString();
-                        gm.groupId = id;
-                        gmDb.save(gm);
+                    if (memberValues != null) {
+                        members.apply(op, null, memberValues);
                     }
+                    if (!attributes.isEmpty() && (op.equals("replace") || op.equals("add"))) {
+                        Group.ATTRIBUTES.setAll(group, attributes);
+                        attributesChanged = true;
+                    }
+                } else if (path.equalsIgnoreCase("members") || path.toLowerCase().startsWith("members[")) {
+                    members.apply(op, path, value);
+                } else {
+                    Group.ATTRIBUTES.set(group, path, op.equals("remove") ? null : value);
+                    attributesChanged = true;
                 }
             }
+        } catch (InvalidAttributeException e) {
+            response.setStatus(400);
+            Map error = scimError(e.getMessage(), Optional.of(400));
+            error.put("scimType", e.scimType);
+            return error;
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            Map error = scimError(e.getMessage(), Optional.of(400));
+            error.put("scimType", e instanceof InvalidFilterException ? "invalidPath" : "invalidValue");
+            return error;
         }
 
-        PageRequest pageRequest = new PageRequest(0, Integer.MAX_VALUE);
-        Page<GroupMembership> gms = gmDb.findByGroupId(id, pageRequest);
-        List<GroupMembership> gmList = gms.getContent();
+        String etag = ETags.of(group.version);
+
+        if (attributesChanged || members.changed()) {
+            List<GroupMembership> added = new ArrayList<>();
+
+            for (Map.Entry<String, String> member : members.added.entrySet()) {
+                GroupMembership gm = new GroupMembership();
+                gm.id = UUID.randomUUID().toString();
+                gm.groupId = id;
+                gm.userId = member.getKey();
+                gm.userDisplay = member.getValue();
+                gm.groupDisplay = group.displayName;
+                added.add(gm);
+            }
+
+            try {
+                // Adding an existing member or removing a missing one writes nothing, so changes to members
+                // commute and without If-Match they apply on top of concurrent ones
+                etag = ETags.of(writer.apply(group, attributesChanged, ifMatch != null, members.removed, added));
+            } catch (ObjectOptimisticLockingFailureException | DataIntegrityViolationException e) {
+                return conflict(response, ifMatch);
+            } finally {
+                cache.invalidate(Group.class, id);
+            }
+
+            // Membership filters count both resources
+            counts.invalidate(Group.class);
+            if (members.changed()) {
+                counts.invalidate(User.class);
+            }
+        }
+
+        HashMap res = group.toScimResource();
         ArrayList<Map<String, Object>> gmAL = new ArrayList<>();
 
-        for (GroupMembership gm: gmList) {
-            gmAL.add(gm.toScimResource());
+        for (Map.Entry<String, String> member : members.members.entrySet()) {
+            Map<String, Object> gm = new HashMap<>();
+            gm.put("value", member.getKey());
+            gm.put("display", member.getValue());
+            gmAL.add(gm);
         }
 
         res.put("members", gmAL);
 
+        // Only changes to the group itself move the version of the loaded entity
+        ((Map) res.get("meta")).put("version", etag);
+        response.setHeader(HttpHeaders.ETAG, etag);
+
         return res;
     }
 
+    /**
+     * Output the error for a write whose If-Match header does not hold the current version
+     * @param response HTTP Response
+     * @return JSON {@link Map} of the error
+     */
+    private Map preconditionFailed(HttpServletResponse response) {
+        response.setStatus(412);
+        return scimError("The group was modified since the version in If-Match.", Optional.of(412));
+    }
+
+    /**
+     * Output the error for a write that lost a race with another write to the same group
+     * Reported as '412' when the client sent If-Match, it can fetch the new version and retry
+     * @param response HTTP Response
+     * @param ifMatch The If-Match header of the request, or null
+     * @return JSON {@link Map} of the error
+     */
+    private Map conflict(HttpServletResponse response, String ifMatch) {
+        if (ifMatch != null) {
+            return preconditionFailed(response);
+        }
+
+        response.setStatus(409);
+        return scimError("The group was modified by another request, retry the update.", Optional.of(409));
+    }
+
+    /**
+     * The members of a {@link Group} as PATCH operations change them
+     * Only the net change against the database is kept, so adding and then removing a member writes nothing
+     */
+    private static class MemberChanges {
+        /** User ID to display of every member after the operations so far, in response order */
+        final Map<String, String> members = new LinkedHashMap<>();
+        /** Members in the database that are to be deleted */
+        final Set<String> removed = new HashSet<>();
+        /** User ID to display of members not in the database that are to be inserted */
+        final Map<String, String> added = new LinkedHashMap<>();
+
+        MemberChanges(List<GroupMembershipDatabase.Member> current) {
+            for (GroupMembershipDatabase.Member member : current) {
+                members.put(member.getUserId(), member.getUserDisplay());
+            }
+        }
+
+        boolean changed() {
+            return !removed.isEmpty() || !added.isEmpty();
+        }
+
+        /**
+         * @param op "add", "remove" or "replace", in lower case
+         * @param path "members", members[value eq "..."], or null for a value of members
+         * @param value A list of members as {"value", "display"}, or null
+         * @throws IllegalArgumentException If a member or the path cannot be read
+         */
+        void apply(String op, String path, Object value) {
+            Set<String> selected = path == null || path.equalsIgnoreCase("members") ? null : select(path);
+
+            switch (op) {
+                case "add":
+                    for (Map<String, Object> member : values(value)) {
+                        add(member);
+                    }
+                    break;
+                case "remove":
+                    if (selected == null && value == null) {
+                        // Removing "members" with no filter removes them all
+                        selected = new HashSet<>(members.keySet());
+                    } else if (selected == null) {
+                        selected = new HashSet<>();
+                        for (Map<String, Object> member : values(value)) {
+                            selected.add(userId(member));
+                        }
+                    }
+                    for (String userId : selected) {
+                        remove(userId);
+                    }
+                    break;
+                case "replace":
+                    List<Map<String, Object>> replacements = values(value);
+                    Set<String> kept = new HashSet<>();
+
+                    for (Map<String, Object> member : replacements) {
+                        kept.add(userId(member));
+                    }
+                    for (String userId : selected == null ? new ArrayList<>(members.keySet()) : selected) {
+                        if (!kept.contains(userId)) {
+                            remove(userId);
+                        }
+                    }
+                    for (Map<String, Object> member : replacements) {
+                        add(member);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation '" + op + "'.");
+            }
+        }
+
+        private void add(Map<String, Object> member) {
+            String userId = userId(member);
+
+            if (members.containsKey(userId)) {
+                return;
+            }
+
+            String display = member.get("display") == null ? null : member.get("display").toString();
+            members.put(userId, display);
+
+            if (!removed.remove(userId)) {
+                added.put(userId, display);
+            }
+        }
+
+        private void remove(String userId) {
+            if (!members.containsKey(userId)) {
+                return;
+            }
+
+            members.remove(userId);
+
+            // The display of an added member may be null, so check for the key
+            if (added.containsKey(userId)) {
+                added.remove(userId);
+            } else {
+                removed.add(userId);
+            }
+        }
+
+        /**
+         * @return The user IDs a members[value eq "..."] path selects, "or" joins several
+         */
+        private Set<String> select(String path) {
+            Filter filter = Filter.parse(path);
+
+            if (!(filter instanceof Filter.ValuePath) || !((Filter.ValuePath) filter).attribute.equals("members")) {
+                throw new InvalidFilterException("Unsupported path '" + path + "'.");
+            }
+
+            Set<String> userIds = new HashSet<>();
+            collect(((Filter.ValuePath) filter).filter, userIds, path);
+            return userIds;
+        }
+
+        private void collect(Filter filter, Set<String> userIds, String path) {
+            if (filter instanceof Filter.Logical && !((Filter.Logical) filter).and) {
+                collect(((Filter.Logical) filter).left, userIds, path);
+                collect(((Filter.Logical) filter).right, userIds, path);
+            } else if (filter instanceof Filter.Comparison
+                    && ((Filter.Comparison) filter).attribute.equals("value")
+                    && ((Filter.Comparison) filter).operator == Filter.Operator.EQ
+                    && ((Filter.Comparison) filter).value != null) {
+                userIds.add(((Filter.Comparison) filter).value.toString());
+            } else {
+                throw new InvalidFilterException("Unsupported path '" + path + "', members can only be selected by value eq.");
+            }
+        }
+
+        private static List<Map<String, Object>> values(Object value) {
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            if (value instanceof Map) {
+                return Collections.singletonList((Map<String, Object>) value);
+            }
+            if (!(value instanceof List)) {
+                throw new IllegalArgumentException("Members must be a list of objects.");
+            }
+
+            for (Object member : (List) value) {
+                if (!(member instanceof Map)) {
+                    throw new IllegalArgumentException("Members must be a list of objects.");
+                }
+            }
+
+            return (List<Map<String, Object>>) value;
+        }
+
+        private static String userId(Map<String, Object> member) {
+            // "userId" is what this endpoint read before it followed RFC 7644
+            Object userId = member.containsKey("value") ? member.get("value") : member.get("userId");
+
+            if (userId == null) {
+                throw new IllegalArgumentException("Member is missing 'value'.");
+            }
+
+            return userId.toString();
+        }
+    }
+
     /**
      * Output custom error message with response code
      * @param message Scim error message
@@ -15,14 +15,21 @@
 
 package com.okta.scim.controllers;
 
+import com.okta.scim.database.CountCache;
 import com.okta.scim.database.UserDatabase;
 import com.okta.scim.models.User;
+import com.okta.scim.utils.ETags;
+import com.okta.scim.utils.InvalidAttributeException;
+import com.okta.scim.utils.ScimResourceCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
-import java.lang.reflect.Field;
 import java.util.*;
 
 /**
@@ -32,104 +39,192 @@ import java.util.*;
 @RequestMapping("/scim/v2/Users/{id}")
 public class SingleUserController {
     UserDatabase db;
+    CountCache counts;
+    ScimResourceCache cache;
 
     @Autowired
-    public SingleUserController(UserDatabase db) {
+    public SingleUserController(UserDatabase db, CountCache counts, ScimResourceCache cache) {
         this.db = db;
+        this.counts = counts;
+        this.cache = cache;
     }
 
     /**
-     * Queries database for {@link User} with identifier
+     * Queries the {@link ScimResourceCache}, then the database, for {@link User} with identifier
      * Updates response code with '404' if unable to locate {@link User}
+     * Responds '304' without a body when the If-None-Match header holds the current version
      * @param id {@link User#id}
-     * @param response HTTP Response
-     * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link User}
+     * @return {@link #scimError(String, Optional)} / JSON of {@link User}
      */
     @RequestMapping(method = RequestMethod.GET)
-    public @ResponseBody Map singeUserGet(@PathVariable String id,  HttpServletResponse response) {
-
-        try {
-            User user = db.findById(id).get(0);
-            return user.toScimResource();
-
-        } catch (Exception e) {
-            response.setStatus(404);
-            return scimError("User not found", Optional.of(404));
+    public ResponseEntity<?> singeUserGet(@PathVariable String id) {
+        ScimResourceCache.Entry user = cache.get(User.class, id, () -> {
+            List<User> found = db.findById(id);
+            return found.isEmpty() ? null : cache.entry(ETags.of(found.get(0).version), found.get(0)::writeScimResource);
+        });
+
+        if (user == null) {
+            return ResponseEntity.status(404).body(scimError("User not found", Optional.of(404)));
         }
+
+        // Spring answers If-None-Match from the ETag, dropping the body
+        return ResponseEntity.ok().eTag(user.version).contentType(MediaType.APPLICATION_JSON_UTF8).body(user.json);
     }
 
     /**
      * Update via Put {@link User} attributes
      * @param payload Payload from HTTP request
      * @param id {@link User#id}
-     * @return JSON {@link Map} of {@link User}
+     * @param ifMatch The versions the client expects the {@link User} to be at, or null to update any version
+     * @param response HTTP Response
+     * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link User}
      */
     @RequestMapping(method = RequestMethod.PUT)
     public @ResponseBody Map singleUserPut(@RequestBody Map<String, Object> payload,
-                                           @PathVariable String id) {
-        User user = db.findById(id).get(0);
+                                           @PathVariable String id,
+                                           @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                           HttpServletResponse response) {
+        List<User> found = db.findById(id);
+
+        if (found.isEmpty()) {
+            response.setStatus(404);
+            return scimError("User '" + id + "' was not found.", Optional.of(404));
+        }
+
+        User user = found.get(0);
+
+        if (!ETags.matches(ifMatch, ETags.of(user.version))) {
+            return preconditionFailed(response);
+        }
+
         user.update(payload);
+
+        try {
+            user = db.save(user);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            return conflict(response, ifMatch);
+        }
+
+        counts.invalidate(User.class);
+        cache.invalidate(User.class, id);
+        response.setHeader(HttpHeaders.ETAG, ETags.of(user.version));
         return user.toScimResource();
     }
 
     /**
      * Update via Patch {@link User} attributes
+     * The user is read once, the operations are applied to it in memory and it is saved once at the end
      * @param payload Payload from HTTP request
      * @param id {@link User#id}
+     * @param ifMatch The versions the client expects the {@link User} to be at, or null to update any version
+     * @param response HTTP Response
      * @return {@link #scimError(String, Optional)} / JSON {@link Map} of {@link User}
      */
     @RequestMapping(method = RequestMethod.PATCH)
     public @ResponseBody Map singleUserPatch(@RequestBody Map<String, Object> payload,
-                                             @PathVariable String id) {
+                                             @PathVariable String id,
+                                             @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                             HttpServletResponse response) {
         List schema = (List)payload.get("schemas");
         List<Map> operations = (List)payload.get("Operations");
 
         if(schema == null){
+            response.setStatus(400);
             return scimError("Payload must contain schema attribute.", Optional.of(400));
         }
         if(operations == null){
+            response.setStatus(400);
             return scimError("Payload must contain operations attribute.", Optional.of(400));
         }
 
         //Verify schema
         String schemaPatchOp = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
         if (!schema.contains(schemaPatchOp)){
+            response.setStatus(501);
             return scimError("The 'schemas' type in this request is not supported.", Optional.of(501));
         }
 
-        int found = db.findById(id).size();
+        List<User> found = db.findById(id);
 
-        if (found == 0) {
+        if (found.isEmpty()) {
+            response.setStatus(404);
             return scimError("User '" + id + "' was not found.", Optional.of(404));
         }
 
-        //Find user for update
-        User user = db.findById(id).get(0);
+        User user = found.get(0);
+
+        if (!ETags.matches(ifMatch, ETags.of(user.version))) {
+            return preconditionFailed(response);
+        }
+
+        boolean changed = false;
 
-        for(Map map : operations){
-            if(map.get("op")==null && !map.get("op").equals("replace")){
+        for (Map map : operations) {
+            if (map.get("op") == null) {
                 continue;
             }
-            Map<String, Object> value = (Map)map.get("userId");
-
-            // Use Java reflection to find and set User attribute
-            if(value != null) {
-                for (Map.Entry key : value.entrySet()) {
-                    try {
-                        Field field = user.getClass().getDeclaredField(key.getKey().toString());
-                        field.set(user, key.getValue());
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        // Error - Do not update field
-                    }
+
+            String op = map.get("op").toString().toLowerCase();
+            String path = map.get("path") == null ? null : map.get("path").toString();
+            Object value = map.containsKey("value") ? map.get("value") : map.get("userId");
+
+            try {
+                if (path != null) {
+                    User.ATTRIBUTES.set(user, path, op.equals("remove") ? null : value);
+                    changed = true;
+                } else if (value instanceof Map && !op.equals("remove")) {
+                    User.ATTRIBUTES.setAll(user, (Map<String, Object>) value);
+                    changed = true;
                 }
+            } catch (InvalidAttributeException e) {
+                response.setStatus(400);
+                Map error = scimError(e.getMessage(), Optional.of(400));
+                error.put("scimType", e.scimType);
+                return error;
+            }
+        }
 
-                db.save(user);
+        if (changed) {
+            try {
+                user = db.save(user);
+            } catch (ObjectOptimisticLockingFailureException e) {
+                return conflict(response, ifMatch);
             }
+
+            counts.invalidate(User.class);
+            cache.invalidate(User.class, id);
         }
 
+        response.setHeader(HttpHeaders.ETAG, ETags.of(user.version));
         return user.toScimResource();
     }
 
+    /**
+     * Output the error for a write whose If-Match header does not hold the current version
+     * @param response HTTP Response
+     * @return JSON {@link Map} of the error
+     */
+    private Map preconditionFailed(HttpServletResponse response) {
+        response.setStatus(412);
+        return scimError("The user was modified since the version in If-Match.", Optional.of(412));
+    }
+
+    /**
+     * Output the error for a write that lost a race with another write to the same user
+     * Reported as '412' when the client sent If-Match, it can fetch the new version and retry
+     * @param response HTTP Response
+     * @param ifMatch The If-Match header of the request, or null
+     * @return JSON {@link Map} of the error
+     */
+    private Map conflict(HttpServletResponse response, String ifMatch) {
+        if (ifMatch != null) {
+            return preconditionFailed(response);
+        }
+
+        response.setStatus(409);
+        return scimError("The user was modified by another request, retry the update.", Optional.of(409));
+    }
+
     /**
      * Output custom error message with response code
      * @param message Scim error message
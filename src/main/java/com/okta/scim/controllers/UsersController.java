@@ -15,21 +15,24 @@
 
 package com.okta.scim.controllers;
 
+import com.okta.scim.database.CountCache;
+import com.okta.scim.database.FilterQueries;
 import com.okta.scim.database.GroupMembershipDatabase;
 import com.okta.scim.database.UserDatabase;
 import com.okta.scim.models.GroupMembership;
 import com.okta.scim.models.User;
+import com.okta.scim.utils.Chunks;
+import com.okta.scim.utils.Cursor;
+import com.okta.scim.utils.Filter;
+import com.okta.scim.utils.InvalidFilterException;
 import com.okta.scim.utils.ListResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  *  URL route (root)/scim/v2/Users
@@ -39,22 +42,26 @@ import java.util.regex.Pattern;
 public class UsersController {
     UserDatabase            db;
     GroupMembershipDatabase gmDb;
+    CountCache              counts;
+    FilterQueries           queries;
 
     @Autowired
-    public UsersController(UserDatabase db, GroupMembershipDatabase gmDb) {
+    public UsersController(UserDatabase db, GroupMembershipDatabase gmDb, CountCache counts, FilterQueries queries) {
       this.db = db;
       this.gmDb = gmDb;
+      this.counts = counts;
+      this.queries = queries;
     }
 
     /**
-     * Support pagination and filtering by username
+     * Support pagination and SCIM filters, see {@link FilterQueries} for the supported attributes
+     * Pages by startIndex, or by keyset when the request carries a cursor parameter (empty for the first page)
      * @param params Payload from HTTP request
-     * @return JSON {@link Map} {@link ListResponse}
+     * @param response HTTP response
+     * @return {@link ListResponse}, streamed as JSON / {@link #scimError(String, Optional)}
      */
     @RequestMapping(method = RequestMethod.GET)
-    public @ResponseBody Map usersGet(@RequestParam Map<String, String> params) {
-        Page<User> users;
-
+    public @ResponseBody Object usersGet(@RequestParam Map<String, String> params, HttpServletResponse response) {
         // If not given count, default to 100
         int count = (params.get("count") != null) ? Integer.parseInt(params.get("count")) : 100;
 
@@ -64,76 +71,99 @@ public class UsersController {
         if(startIndex < 1){
             startIndex = 1;
         }
-        startIndex -=1;
-
-        PageRequest pageRequest = new PageRequest(startIndex, count);
-
-        String filter = params.get("filter");
-        if (filter != null && filter.contains("eq")) {
-            String regex = "(\\w+) eq \"([^\"]*)\"";
-            Pattern response = Pattern.compile(regex);
-
-            Matcher match = response.matcher(filter);
-            Boolean found = match.find();
-            if (found) {
-                String searchKeyName = match.group(1);
-                String searchValue = match.group(2);
-                switch (searchKeyName) {
-                    case "active":
-                        users = db.findByActive(Boolean.valueOf(searchValue), pageRequest);
-                        break;
-                    case "faimlyName":
-                        users = db.findByFamilyName(searchValue, pageRequest);
-                        break;
-                    case "givenName":
-                        users = db.findByGivenName(searchValue, pageRequest);
-                        break;
-                    default:
-                        // Defaults to username lookup
-                        users = db.findByUsername(searchValue, pageRequest);
-                        break;
-                }
-            } else {
-                users = db.findAll(pageRequest);
+
+        // A negative count is interpreted as 0, only totalResults is returned
+        if (count < 0) {
+            count = 0;
+        }
+
+        Filter filter;
+
+        try {
+            filter = queries.parse(params.get("filter"));
+        } catch (InvalidFilterException e) {
+            response.setStatus(400);
+            return invalidFilter(e);
+        }
+
+        String cursor = params.get("cursor");
+        String after = null;
+
+        if (cursor != null) {
+            try {
+                after = Cursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                response.setStatus(400);
+                return scimError("The cursor is invalid.", Optional.of(400));
             }
-        } else {
-            users = db.findAll(pageRequest);
         }
 
-        List<User> foundUsers = users.getContent();
-        int totalResults = foundUsers.size();
+        int totalResults;
+        Stream<User> foundUsers;
+
+        try {
+            totalResults = (int) count(filter);
+
+            // With a cursor, read one extra row to know whether another page follows
+            foundUsers = cursor != null
+                    ? queries.stream(User.class, filter, after, 0, count + 1)
+                    : queries.stream(User.class, filter, null, startIndex - 1, count);
+        } catch (InvalidFilterException e) {
+            response.setStatus(400);
+            return invalidFilter(e);
+        }
+
+        // Rows are read while the response is written, the persistence context and groupsByUser only hold one chunk
+        Map<String, List<GroupMembership>> groupsByUser = new HashMap<>();
+        Stream<User> page = Chunks.of(foundUsers, queries.getFetchSize(), chunk -> {
+            queries.clear();
+            groupsByUser.clear();
+            groupsByUser.putAll(findGroups(chunk));
+        });
 
         // Convert optional values into Optionals for ListResponse Constructor
-        ListResponse<User> returnValue = new ListResponse<>(foundUsers, Optional.of(startIndex),
-                                        Optional.of(count), Optional.of(totalResults));
+        ListResponse<User> returnValue = new ListResponse<>(page, cursor != null ? Optional.empty() : Optional.of(startIndex),
+                Optional.of(count), Optional.of(totalResults));
 
-        HashMap<String, Object> res = returnValue.toScimResource();
-        ArrayList<HashMap<String, Object>> resG  = (ArrayList) res.get("Resources");
-        ArrayList<HashMap<String, Object>> resGN = new ArrayList<>();
+        if (cursor != null) {
+            returnValue.setCursorPaging(u -> u.id);
+        }
 
-        for (HashMap<String, Object> u: resG) {
-            PageRequest           pReq = new PageRequest(0, Integer.MAX_VALUE);
-            Page<GroupMembership> pg   = gmDb.findByUserId(u.get("id").toString(), pReq);
+        return returnValue.setResourceWriter((u, gen) -> u.writeScimResource(gen, groupsByUser.get(u.id)));
+    }
 
-            if (!pg.hasContent()) {
-                continue;
-            }
+    /**
+     * Counts the {@link User} matching a filter through the {@link CountCache}
+     * @param filter The parsed filter, or null for all users
+     * @return The number of matching users
+     */
+    private long count(Filter filter) {
+        return counts.get(User.class, FilterQueries.countKey(filter), () -> queries.count(User.class, filter));
+    }
 
-            List<GroupMembership> gmList = pg.getContent();
-            ArrayList<Map<String, Object>> gms = new ArrayList<>();
+    /**
+     * Loads the group memberships of every given {@link User} with a single query
+     * @param users The {@link User} instances of the current chunk
+     * @return {@link GroupMembership} instances, keyed by {@link User#id}
+     */
+    private Map<String, List<GroupMembership>> findGroups(List<User> users) {
+        Map<String, List<GroupMembership>> groupsByUser = new HashMap<>();
 
-            for (GroupMembership gm: gmList) {
-                gms.add(gm.toUserScimResource());
-            }
+        if (users.isEmpty()) {
+            return groupsByUser;
+        }
 
-            u.put("groups", gms);
-            resGN.add(u);
+        List<String> userIds = new ArrayList<>(users.size());
+
+        for (User user: users) {
+            userIds.add(user.id);
         }
 
-        res.remove("Resources");
-        res.put("Resources", resGN);
+        for (GroupMembership gm: gmDb.findByUserIdIn(userIds)) {
+            groupsByUser.computeIfAbsent(gm.userId, k -> new ArrayList<>()).add(gm);
+        }
 
-        return res;
+        return groupsByUser;
     }
 
     /**
@@ -148,7 +178,38 @@ public class UsersController {
         User newUser = new User(params);
         newUser.id = UUID.randomUUID().toString();
         db.save(newUser);
+        counts.invalidate(User.class);
         response.setStatus(201);
         return newUser.toScimResource();
     }
+
+    /**
+     * Output the error for a filter that cannot be parsed or is not supported
+     * @param e The parse error
+     * @return JSON {@link Map} of the error
+     */
+    private Map invalidFilter(InvalidFilterException e) {
+        Map error = scimError(e.getMessage(), Optional.of(400));
+        error.put("scimType", "invalidFilter");
+        return error;
+    }
+
+    /**
+     * Output custom error message with response code
+     * @param message Scim error message
+     * @param status_code Response status code
+     * @return JSON {@link Map} of the error
+     */
+    public Map scimError(String message, Optional<Integer> status_code){
+
+        Map<String, Object> returnValue = new HashMap<>();
+        List<String> schemas = new ArrayList<>();
+        schemas.add("urn:ietf:params:scim:api:messages:2.0:Error");
+        returnValue.put("schemas", schemas);
+        returnValue.put("detail", message);
+
+        // Set default to 500
+        returnValue.put("status", status_code.orElse(500));
+        return returnValue;
+    }
 }
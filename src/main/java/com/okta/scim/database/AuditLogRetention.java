@@ -0,0 +1,236 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.okta.scim.models.Request;
+import com.okta.scim.models.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.sql.Connection;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Deletes old {@link Transaction} and {@link Request} rows on a schedule, so the audit log does not grow forever
+ * Rows older than max-age-days, or beyond the newest max-rows of a table, are deleted oldest first,
+ * chunk-size rows per database transaction so writers are never locked out for long
+ * When archive-dir is set the rows are appended to a gzipped JSON lines file, one per table and run,
+ * each chunk once its delete has committed, so a failed delete is retried without archiving its rows twice
+ */
+@Component
+public class AuditLogRetention {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private static final DateTimeFormatter FILE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final String[] TABLES = {"transactions", "requests"};
+
+    private Logger logger = LoggerFactory.getLogger(AuditLogRetention.class);
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper mapper = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final boolean enabled;
+    private final int maxAgeDays;
+    private final long maxRows;
+    private final int chunkSize;
+    private final String archiveDir;
+
+    @Autowired
+    public AuditLogRetention(JdbcTemplate jdbc,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${scim.retention.enabled:true}") boolean enabled,
+                             @Value("${scim.retention.max-age-days:30}") int maxAgeDays,
+                             @Value("${scim.retention.max-rows:1000000}") long maxRows,
+                             @Value("${scim.retention.chunk-size:1000}") int chunkSize,
+                             @Value("${scim.retention.archive-dir:}") String archiveDir) {
+        this.jdbc = jdbc;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.maxAgeDays = maxAgeDays;
+        this.maxRows = maxRows;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.archiveDir = archiveDir;
+    }
+
+    /**
+     * Applies the retention limits to every audit table
+     * Runs once shortly after startup, then interval-ms after the previous run finished
+     */
+    @Scheduled(initialDelayString = "${scim.retention.initial-delay-ms:60000}",
+            fixedDelayString = "${scim.retention.interval-ms:3600000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
+        long deleted = 0;
+
+        for (String table: TABLES) {
+            try {
+                deleted += purge(table, now);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Retention could not purge " + table, e);
+            }
+        }
+
+        if (deleted > 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Deletes the rows of a table that are past either limit
+     * @param table "transactions" or "requests"
+     * @param now The time of this run, UTC
+     * @return The number of rows deleted
+     */
+    private long purge(String table, LocalDateTime now) throws IOException {
+        String cutoff = cutoff(table, now);
+
+        if (cutoff == null) {
+            return 0;
+        }
+
+        File archive = archiveDir.isEmpty() ? null
+                : new File(archiveDir, table + "-" + now.format(FILE_SUFFIX) + ".jsonl.gz");
+        long deleted = 0;
+
+        try (Writer out = archive == null ? null : open(archive)) {
+            while (true) {
+                List<Map<String, Object>> rows = jdbc.queryForList("SELECT " + (out == null ? "id" : "*")
+                        + " FROM " + table + " WHERE time_stamp < ? ORDER BY time_stamp LIMIT ?", cutoff, chunkSize);
+
+                if (rows.isEmpty()) {
+                    break;
+                }
+
+                // Serialized before the delete, so only writing to the file is left once it has committed
+                String lines = out == null ? null : toJsonLines(rows);
+                List<Object[]> ids = new ArrayList<>(rows.size());
+
+                for (Map<String, Object> row: rows) {
+                    ids.add(new Object[] {row.get("id")});
+                }
+
+                // One database transaction per chunk, so the table is only locked for a chunk at a time
+                transactionTemplate.execute(status -> jdbc.batchUpdate("DELETE FROM " + table + " WHERE id = ?", ids));
+                deleted += rows.size();
+
+                if (out != null) {
+                    try {
+                        out.write(lines);
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new IOException("Could not archive " + rows.size() + " deleted " + table
+                                + " from " + rows.get(0).get("id") + " to " + rows.get(rows.size() - 1).get("id"), e);
+                    }
+                }
+
+                if (rows.size() < chunkSize) {
+                    break;
+                }
+            }
+        }
+
+        if (deleted > 0) {
+            logger.info("Retention deleted " + deleted + " " + table + " older than " + cutoff
+                    + (archive == null ? "" : ", archived to " + archive));
+        } else if (archive != null) {
+            archive.delete();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * @return The time_stamp before which rows are deleted, the later of the two limits, or null to keep every row
+     */
+    private String cutoff(String table, LocalDateTime now) {
+        String cutoff = maxAgeDays > 0 ? now.minusDays(maxAgeDays).format(TIMESTAMP) : null;
+
+        if (maxRows > 0) {
+            // The time_stamp of the oldest row within max-rows, read from the time_stamp index
+            List<String> oldestKept = jdbc.queryForList("SELECT time_stamp FROM " + table
+                    + " ORDER BY time_stamp DESC LIMIT 1 OFFSET ?", String.class, maxRows - 1);
+
+            if (!oldestKept.isEmpty() && (cutoff == null || oldestKept.get(0).compareTo(cutoff) > 0)) {
+                cutoff = oldestKept.get(0);
+            }
+        }
+
+        return cutoff;
+    }
+
+    /**
+     * @param rows The rows of a chunk, by column name
+     * @return One JSON object per row and line, with lower-case column names
+     */
+    private String toJsonLines(List<Map<String, Object>> rows) throws IOException {
+        StringWriter lines = new StringWriter();
+
+        for (Map<String, Object> row: rows) {
+            Map<String, Object> columns = new LinkedHashMap<>();
+            row.forEach((column, value) -> columns.put(column.toLowerCase(), value));
+            mapper.writeValue(lines, columns);
+            lines.write('\n');
+        }
+
+        return lines.toString();
+    }
+
+    private Writer open(File archive) throws IOException {
+        File directory = archive.getParentFile();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        return new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(archive)), "UTF-8"));
+    }
+
+    /**
+     * Rewrites HSQLDB's script and log files, so the deleted rows stop costing disk space and startup replay
+     */
+    private void checkpoint() {
+        try {
+            String database = jdbc.execute((Connection c) -> c.getMetaData().getDatabaseProductName());
+
+            if (database.startsWith("HSQL")) {
+                jdbc.execute("CHECKPOINT");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Retention could not checkpoint the database", e);
+        }
+    }
+}
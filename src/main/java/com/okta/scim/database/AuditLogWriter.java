@@ -0,0 +1,324 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Request;
+import com.okta.scim.models.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes {@link Transaction} and {@link Request} audit rows off the request thread
+ * Rows are queued in memory and inserted by a background thread in JDBC batches
+ */
+@Component
+public class AuditLogWriter {
+    /**
+     * What to do with a row when the queue cannot take it
+     */
+    public enum Backpressure {
+        /** Discard the row when the queue is full */
+        DROP,
+        /** Wait on the request thread until the queue has room */
+        BLOCK,
+        /** Once the queue is half full, keep one row in every sample-rate rows and drop the rest */
+        SAMPLE
+    }
+
+    private static final String INSERT_REQUEST = "INSERT INTO requests "
+            + "(id, time_stamp, method, endpoint) VALUES (?, ?, ?, ?)";
+
+    private static final String INSERT_TRANSACTION = "INSERT INTO transactions "
+            + "(id, request_id, time_stamp, http_code, method, endpoint, request_body, response_body, java_method, "
+            + "handler_ms, db_statements, db_ms, serialization_ms, audit_ms) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Column lengths of the Request and Transaction mappings
+    private static final int ID_LENGTH = 36;
+    private static final int METHOD_LENGTH = 20;
+    private static final int ENDPOINT_LENGTH = 250;
+    private static final int JAVA_METHOD_LENGTH = 300;
+
+    private Logger logger = LoggerFactory.getLogger(AuditLogWriter.class);
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean async;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Backpressure backpressure;
+    private final int sampleRate;
+
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private volatile boolean running = true;
+    private Thread worker;
+
+    @Autowired
+    public AuditLogWriter(JdbcTemplate jdbc,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${scim.audit.async:true}") boolean async,
+                          @Value("${scim.audit.queue-capacity:10000}") int capacity,
+                          @Value("${scim.audit.batch-size:100}") int batchSize,
+                          @Value("${scim.audit.flush-interval-ms:500}") long flushIntervalMs,
+                          @Value("${scim.audit.backpressure:BLOCK}") Backpressure backpressure,
+                          @Value("${scim.audit.sample-rate:10}") int sampleRate) {
+        this.jdbc = jdbc;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.async = async;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.backpressure = backpressure;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!async) {
+            return;
+        }
+
+        worker = new Thread(this::run, "audit-log-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Flushes every queued row before the datasource goes away
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        if (worker != null) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        // Whatever the worker could not finish in time is written from the shutdown thread
+        List<Entry> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        insert(remaining);
+    }
+
+    /**
+     * Queues a {@link Request} and the {@link Transaction} it produced, to be inserted in the same batch
+     * Inserts them right away when async writing is disabled
+     * @param request The {@link Request} to persist, may be null
+     * @param transaction The {@link Transaction} to persist, may be null
+     */
+    public void write(Request request, Transaction transaction) {
+        Entry entry = new Entry(request, transaction);
+
+        if (!async || !running) {
+            insert(Collections.singletonList(entry));
+            return;
+        }
+
+        switch (backpressure) {
+            case BLOCK:
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+                break;
+            case SAMPLE:
+                if (queue.size() >= capacity / 2 && sampled.incrementAndGet() % sampleRate != 0) {
+                    dropped.incrementAndGet();
+                    break;
+                }
+                // Sampled rows are still dropped when the queue is full
+            case DROP:
+            default:
+                if (!queue.offer(entry)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return The number of rows waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of rows discarded because of backpressure since startup
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        long reportedDrops = 0;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    insert(batch);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+
+            long drops = dropped.get();
+
+            if (drops != reportedDrops) {
+                logger.warn("Audit log queue is saturated, " + (drops - reportedDrops) + " transactions were not recorded");
+                reportedDrops = drops;
+            }
+        }
+    }
+
+    /**
+     * Inserts rows as JDBC batches in a single database transaction
+     * When the batch fails, retries its rows one at a time so that a bad row only loses itself
+     * @param entries The rows to insert
+     */
+    private void insert(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            insertBatch(entries);
+            return;
+        } catch (RuntimeException e) {
+            if (entries.size() == 1) {
+                logger.error("Could not write an audit entry", e);
+                return;
+            }
+        }
+
+        int failed = 0;
+        RuntimeException firstError = null;
+
+        for (Entry entry: entries) {
+            try {
+                insertBatch(Collections.singletonList(entry));
+            } catch (RuntimeException e) {
+                failed++;
+                if (firstError == null) {
+                    firstError = e;
+                }
+            }
+        }
+
+        if (failed > 0) {
+            logger.error("Could not write " + failed + " of " + entries.size() + " audit entries", firstError);
+        }
+    }
+
+    private void insertBatch(List<Entry> entries) {
+        List<Request> requests = new ArrayList<>(entries.size());
+        List<Transaction> transactions = new ArrayList<>(entries.size());
+
+        for (Entry entry: entries) {
+            if (entry.request != null) {
+                requests.add(entry.request);
+            }
+            if (entry.transaction != null) {
+                transactions.add(entry.transaction);
+            }
+        }
+
+        transactionTemplate.execute(status -> {
+            if (!requests.isEmpty()) {
+                jdbc.batchUpdate(INSERT_REQUEST, requests, requests.size(), (ps, r) -> {
+                    ps.setString(1, truncate(r.id, ID_LENGTH));
+                    ps.setString(2, r.timeStamp);
+                    ps.setString(3, truncate(r.method, METHOD_LENGTH));
+                    ps.setString(4, truncate(r.endpoint, ENDPOINT_LENGTH));
+                });
+            }
+
+            if (!transactions.isEmpty()) {
+                jdbc.batchUpdate(INSERT_TRANSACTION, transactions, transactions.size(), (ps, t) -> {
+                    ps.setString(1, truncate(t.id, ID_LENGTH));
+                    ps.setString(2, truncate(t.requestId, ID_LENGTH));
+                    ps.setString(3, t.timeStamp);
+                    ps.setInt(4, t.httpCode);
+                    ps.setString(5, truncate(t.method, METHOD_LENGTH));
+                    ps.setString(6, truncate(t.endpoint, ENDPOINT_LENGTH));
+                    ps.setString(7, t.requestBody);
+                    ps.setString(8, t.responseBody);
+                    ps.setString(9, truncate(t.javaMethod, JAVA_METHOD_LENGTH));
+                    ps.setObject(10, t.handlerMs, Types.DOUBLE);
+                    ps.setObject(11, t.dbStatements, Types.BIGINT);
+                    ps.setObject(12, t.dbMs, Types.DOUBLE);
+                    ps.setObject(13, t.serializationMs, Types.DOUBLE);
+                    ps.setObject(14, t.auditMs, Types.DOUBLE);
+                });
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Cuts a value down to its column length, so that a long endpoint or method name cannot fail the batch
+     * @param value The value, may be null
+     * @param length The column length
+     * @return The value, or its first length characters
+     */
+    private static String truncate(String value, int length) {
+        return value == null || value.length() <= length ? value : value.substring(0, length);
+    }
+
+    /**
+     * A queued call: the {@link Request} and/or the {@link Transaction} to persist
+     */
+    private static class Entry {
+        private final Request request;
+        private final Transaction transaction;
+
+        private Entry(Request request, Transaction transaction) {
+            this.request = request;
+            this.transaction = transaction;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Inserts {@link User}, {@link Group} and {@link GroupMembership} rows as JDBC batches
+ * Used by bulk requests, where saving resources one by one through JPA costs a round trip each
+ */
+@Component
+public class BulkInserter {
+    private static final String INSERT_USER = "INSERT INTO users "
+            + "(id, active, user_name, family_name, middle_name, given_name) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_GROUP = "INSERT INTO groups "
+            + "(id, display_name) VALUES (?, ?)";
+
+    private static final String INSERT_MEMBERSHIP = "INSERT INTO groupmemberships "
+            + "(id, group_id, user_id, group_display, user_display) VALUES (?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public BulkInserter(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Inserts the rows in a single database transaction, nothing is inserted if any row fails
+     * @param users The {@link User} rows to insert
+     * @param groups The {@link Group} rows to insert
+     * @param memberships The {@link GroupMembership} rows to insert, after their users and groups
+     * @throws org.springframework.dao.DataAccessException If any row could not be inserted
+     */
+    public void insert(List<User> users, List<Group> groups, List<GroupMembership> memberships) {
+        transactionTemplate.execute(status -> {
+            if (!users.isEmpty()) {
+                jdbc.batchUpdate(INSERT_USER, users, users.size(), (ps, u) -> {
+                    ps.setString(1, u.id);
+                    ps.setObject(2, u.active, Types.BOOLEAN);
+                    ps.setString(3, u.userName);
+                    ps.setString(4, u.familyName);
+                    ps.setString(5, u.middleName);
+                    ps.setString(6, u.givenName);
+                });
+            }
+
+            if (!groups.isEmpty()) {
+                jdbc.batchUpdate(INSERT_GROUP, groups, groups.size(), (ps, g) -> {
+                    ps.setString(1, g.id);
+                    ps.setString(2, g.displayName);
+                });
+            }
+
+            if (!memberships.isEmpty()) {
+                jdbc.batchUpdate(INSERT_MEMBERSHIP, memberships, memberships.size(), (ps, gm) -> {
+                    ps.setString(1, gm.id);
+                    ps.setString(2, gm.groupId);
+                    ps.setString(3, gm.userId);
+                    ps.setString(4, gm.groupDisplay);
+                    ps.setString(5, gm.userDisplay);
+                });
+            }
+
+            return null;
+        });
+    }
+}
@@ -0,0 +1,97 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the result of count queries per resource type and filter
+ * Every write to a resource type must call {@link #invalidate(Class)} for that type
+ * At most cache-size filters are kept per type, the least used are evicted first
+ */
+@Component
+public class CountCache {
+    private final Map<Class<?>, Counts> counts = new ConcurrentHashMap<>();
+    private final long cacheSize;
+
+    @Autowired
+    public CountCache(@Value("${scim.count.cache-size:1000}") long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Returns the cached count for a filter, running the count query on a miss
+     * @param type The model class being counted
+     * @param key A key describing the filter, e.g. "userName=bob"
+     * @param counter The count query to run on a miss
+     * @return The number of matching rows
+     */
+    public long get(Class<?> type, String key, LongSupplier counter) {
+        Counts typeCounts = counts.computeIfAbsent(type, t -> new Counts(cacheSize));
+        long generation;
+
+        synchronized (typeCounts) {
+            Long cached = typeCounts.values.getIfPresent(key);
+
+            if (cached != null) {
+                return cached;
+            }
+
+            generation = typeCounts.generation;
+        }
+
+        long value = counter.getAsLong();
+
+        synchronized (typeCounts) {
+            // Only keep the value if no write happened while the query was running
+            if (typeCounts.generation == generation) {
+                typeCounts.values.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Drops every cached count for a resource type
+     * @param type The model class that was written to
+     */
+    public void invalidate(Class<?> type) {
+        Counts typeCounts = counts.computeIfAbsent(type, t -> new Counts(cacheSize));
+
+        synchronized (typeCounts) {
+            typeCounts.generation++;
+            typeCounts.values.invalidateAll();
+        }
+    }
+
+    private static class Counts {
+        private long generation;
+        private final Cache<String, Long> values;
+
+        private Counts(long cacheSize) {
+            this.values = Caffeine.newBuilder().maximumSize(cacheSize).build();
+        }
+    }
+}
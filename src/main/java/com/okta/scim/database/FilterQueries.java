@@ -0,0 +1,428 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import com.okta.scim.utils.Filter;
+import com.okta.scim.utils.InvalidFilterException;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs list queries for SCIM filters, compiled to JPA Criteria predicates over {@link User} and {@link Group}
+ * Parsed filters are cached by their text
+ *
+ * Supported attributes, besides id:
+ * User: userName, active, name.givenName, name.familyName, name.middleName (also without "name."),
+ * emails.value (the userName), emails.type ("work"), emails.primary (true), groups.value, groups.display
+ * Group: displayName, members.value, members.display
+ */
+@Component
+public class FilterQueries {
+    @PersistenceContext
+    private EntityManager em;
+
+    private final Cache<String, Filter> parsed;
+    private final int fetchSize;
+
+    @Autowired
+    public FilterQueries(@Value("${scim.filter.cache-size:1000}") long cacheSize,
+                         @Value("${scim.list.fetch-size:500}") int fetchSize) {
+        this.parsed = Caffeine.newBuilder().maximumSize(cacheSize).build();
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    /**
+     * Parses a filter, or returns it from the cache
+     * @param filter The filter as given in the request, may be null or empty
+     * @return The parsed filter, or null to match every resource
+     * @throws InvalidFilterException If the filter is not valid
+     */
+    public Filter parse(String filter) {
+        if (filter == null || filter.trim().isEmpty()) {
+            return null;
+        }
+
+        return parsed.get(filter, Filter::parse);
+    }
+
+    /**
+     * Returns the resources matching a filter, ordered by ID
+     * @param type {@link User} or {@link Group}
+     * @param filter The parsed filter, or null for every resource
+     * @param after Only return resources whose ID sorts after this one, null to start at the beginning
+     * @param offset The number of matching resources to skip
+     * @param limit The maximum number of resources to return
+     * @return The matching resources
+     * @throws InvalidFilterException If the filter uses an attribute or operator the type does not support
+     */
+    public <T> List<T> find(Class<T> type, Filter filter, String after, long offset, int limit) {
+        return findQuery(type, filter, after)
+                .setFirstResult((int) offset)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Streams the resources matching a filter, ordered by ID, reading rows from the database as the stream is consumed
+     * The entities are read-only and stay in the persistence context until {@link #clear()}, the stream must be closed
+     * @param type {@link User} or {@link Group}
+     * @param filter The parsed filter, or null for every resource
+     * @param after Only return resources whose ID sorts after this one, null to start at the beginning
+     * @param offset The number of matching resources to skip
+     * @param limit The maximum number of resources to return
+     * @return The matching resources
+     * @throws InvalidFilterException If the filter uses an attribute or operator the type does not support
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Stream<T> stream(Class<T> type, Filter filter, String after, long offset, int limit) {
+        TypedQuery<T> query = findQuery(type, filter, after);
+
+        // Hibernate reads a max results of 0 as no limit
+        if (limit <= 0) {
+            return Stream.empty();
+        }
+
+        return query
+                .setFirstResult((int) offset)
+                .setMaxResults(limit)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .unwrap(org.hibernate.query.Query.class)
+                .stream();
+    }
+
+    /**
+     * @return The number of rows read from the database at a time by {@link #stream(Class, Filter, String, long, int)}
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Detaches every entity of the persistence context, so a long stream does not keep the resources it returned
+     */
+    public void clear() {
+        em.clear();
+    }
+
+    /**
+     * Builds the query run by {@link #find(Class, Filter, String, long, int)}, without offset and limit
+     * @param type {@link User} or {@link Group}
+     * @param filter The parsed filter, or null for every resource
+     * @param after Only return resources whose ID sorts after this one, null to start at the beginning
+     * @return The query
+     * @throws InvalidFilterException If the filter uses an attribute or operator the type does not support
+     */
+    public <T> TypedQuery<T> findQuery(Class<T> type, Filter filter, String after) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> root = query.from(type);
+        Predicate where = filter == null ? cb.conjunction() : compile(filter, new Scope(type, root, ""), query, cb);
+
+        if (after != null) {
+            where = cb.and(where, cb.greaterThan(root.get("id"), after));
+        }
+
+        return em.createQuery(query.select(root).where(where).orderBy(cb.asc(root.get("id"))));
+    }
+
+    /**
+     * Counts the resources matching a filter
+     * @param type {@link User} or {@link Group}
+     * @param filter The parsed filter, or null for every resource
+     * @return The number of matching resources
+     * @throws InvalidFilterException If the filter uses an attribute or operator the type does not support
+     */
+    public long count(Class<?> type, Filter filter) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<?> root = query.from(type);
+
+        query.select(cb.count(root));
+
+        if (filter != null) {
+            query.where(compile(filter, new Scope(type, root, ""), query, cb));
+        }
+
+        return em.createQuery(query).getSingleResult();
+    }
+
+    /**
+     * @param filter The parsed filter, or null
+     * @return The {@link CountCache} key of the filter
+     */
+    public static String countKey(Filter filter) {
+        return filter == null ? "" : filter.toString();
+    }
+
+    private Predicate compile(Filter filter, Scope scope, CommonAbstractCriteria query, CriteriaBuilder cb) {
+        if (filter instanceof Filter.Logical) {
+            Filter.Logical logical = (Filter.Logical) filter;
+            Predicate left = compile(logical.left, scope, query, cb);
+            Predicate right = compile(logical.right, scope, query, cb);
+            return logical.and ? cb.and(left, right) : cb.or(left, right);
+        }
+
+        if (filter instanceof Filter.Not) {
+            return cb.not(compile(((Filter.Not) filter).filter, scope, query, cb));
+        }
+
+        if (filter instanceof Filter.ValuePath) {
+            Filter.ValuePath valuePath = (Filter.ValuePath) filter;
+            String attribute = scope.prefix + valuePath.attribute;
+
+            if (isMemberships(scope, attribute)) {
+                return memberships(scope, attribute, valuePath.filter, query, cb);
+            }
+
+            return compile(valuePath.filter, new Scope(scope.type, scope.root, attribute + "."), query, cb);
+        }
+
+        String attribute = scope.prefix + (filter instanceof Filter.Present
+                ? ((Filter.Present) filter).attribute
+                : ((Filter.Comparison) filter).attribute);
+        int dot = attribute.indexOf('.');
+        String parent = dot < 0 ? attribute : attribute.substring(0, dot);
+
+        if (isMemberships(scope, parent)) {
+            Filter relative = filter instanceof Filter.Present
+                    ? new Filter.Present(dot < 0 ? "value" : attribute.substring(dot + 1))
+                    : new Filter.Comparison(dot < 0 ? "value" : attribute.substring(dot + 1),
+                            ((Filter.Comparison) filter).operator, ((Filter.Comparison) filter).value);
+            return memberships(scope, parent, relative, query, cb);
+        }
+
+        Object constant = constant(scope, attribute);
+
+        if (constant != null) {
+            boolean matches = filter instanceof Filter.Present || matches(constant, (Filter.Comparison) filter);
+            return matches ? cb.conjunction() : cb.disjunction();
+        }
+
+        Expression<?> path = attribute(scope, attribute);
+
+        if (filter instanceof Filter.Present) {
+            return cb.isNotNull(path);
+        }
+
+        return compare(path, (Filter.Comparison) filter, cb);
+    }
+
+    /**
+     * Compiles a filter on the group memberships of a resource to an IN subquery
+     * @param scope The {@link User} or {@link Group} being filtered
+     * @param attribute "groups" or "members"
+     * @param filter The filter, with value and display relative to a single membership
+     */
+    private Predicate memberships(Scope scope, String attribute, Filter filter, CommonAbstractCriteria query, CriteriaBuilder cb) {
+        Subquery<String> subquery = query.subquery(String.class);
+        Root<GroupMembership> gm = subquery.from(GroupMembership.class);
+        String owner = scope.type == User.class ? "userId" : "groupId";
+
+        // Uncorrelated so the database can drive it from the membership indexes instead of probing every row
+        subquery.select(gm.get(owner)).where(
+                compile(filter, new Scope(GroupMembership.class, gm, attribute + "."), subquery, cb));
+
+        return scope.root.get("id").in(subquery);
+    }
+
+    private boolean isMemberships(Scope scope, String attribute) {
+        return (scope.type == User.class && attribute.equals("groups"))
+                || (scope.type == Group.class && attribute.equals("members"));
+    }
+
+    /**
+     * Maps a SCIM attribute path to an expression over the entity
+     * @param scope The entity being filtered
+     * @param attribute The lower-case attribute path, including the prefix of an enclosing value path
+     * @return The expression holding the attribute value
+     */
+    private Expression<?> attribute(Scope scope, String attribute) {
+        if (scope.type == User.class) {
+            switch (attribute) {
+                case "id": return scope.root.get("id");
+                case "username": return scope.root.get("userName");
+                case "active": return scope.root.get("active");
+                case "name.givenname":
+                case "givenname": return scope.root.get("givenName");
+                case "name.familyname":
+                case "familyname": return scope.root.get("familyName");
+                case "name.middlename":
+                case "middlename": return scope.root.get("middleName");
+                // Users have a single work email, which is their userName
+                case "emails":
+                case "emails.value": return scope.root.get("userName");
+            }
+        } else if (scope.type == Group.class) {
+            switch (attribute) {
+                case "id": return scope.root.get("id");
+                case "displayname": return scope.root.get("displayName");
+            }
+        } else if (scope.type == GroupMembership.class) {
+            switch (attribute) {
+                case "groups.value": return scope.root.get("groupId");
+                case "groups.display": return scope.root.get("groupDisplay");
+                case "members.value": return scope.root.get("userId");
+                case "members.display": return scope.root.get("userDisplay");
+            }
+        }
+
+        throw new InvalidFilterException("Filtering on '" + attribute + "' is not supported");
+    }
+
+    /**
+     * @param scope The entity being filtered
+     * @param attribute The lower-case attribute path
+     * @return The value of an attribute that is the same for every resource, or null if it is stored
+     */
+    private Object constant(Scope scope, String attribute) {
+        if (scope.type == User.class) {
+            switch (attribute) {
+                case "emails.type": return "work";
+                case "emails.primary": return true;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Evaluates a comparison against an attribute that has the same value for every resource
+     */
+    private boolean matches(Object constant, Filter.Comparison comparison) {
+        Object value = comparison.value;
+
+        if (constant instanceof Boolean && value instanceof String) {
+            value = Boolean.valueOf((String) value);
+        }
+
+        if (comparison.operator == Filter.Operator.EQ || comparison.operator == Filter.Operator.NE) {
+            return constant.equals(value) == (comparison.operator == Filter.Operator.EQ);
+        }
+        if (!(constant instanceof String) || !(value instanceof String)) {
+            throw new InvalidFilterException("'" + comparison + "' is not supported");
+        }
+
+        String text = (String) constant;
+        int order = text.compareTo((String) value);
+
+        switch (comparison.operator) {
+            case CO: return text.contains((String) value);
+            case SW: return text.startsWith((String) value);
+            case EW: return text.endsWith((String) value);
+            case GT: return order > 0;
+            case GE: return order >= 0;
+            case LT: return order < 0;
+            default: return order <= 0;
+        }
+    }
+
+    /**
+     * Compiles a comparison to a predicate that is never unknown, so not (...) also matches resources
+     * without the attribute, as ne does
+     */
+    private Predicate compare(Expression<?> path, Filter.Comparison comparison, CriteriaBuilder cb) {
+        Predicate predicate = comparePresent(path, comparison, cb);
+
+        if (comparison.value == null || comparison.operator == Filter.Operator.NE) {
+            return predicate;
+        }
+
+        return cb.and(cb.isNotNull(path), predicate);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Predicate comparePresent(Expression<?> path, Filter.Comparison comparison, CriteriaBuilder cb) {
+        Object value = comparison.value;
+
+        if (value == null) {
+            switch (comparison.operator) {
+                case EQ: return cb.isNull(path);
+                case NE: return cb.isNotNull(path);
+                default: throw new InvalidFilterException("'" + comparison + "' cannot compare with null");
+            }
+        }
+
+        if (path.getJavaType() == Boolean.class) {
+            // Clients commonly quote booleans, e.g. active eq "true"
+            if (value instanceof String && (value.equals("true") || value.equals("false"))) {
+                value = Boolean.valueOf((String) value);
+            }
+            if (!(value instanceof Boolean)) {
+                throw new InvalidFilterException("'" + comparison.attribute + "' is a boolean attribute");
+            }
+
+            switch (comparison.operator) {
+                case EQ: return cb.equal(path, value);
+                case NE: return cb.or(cb.notEqual(path, value), cb.isNull(path));
+                default: throw new InvalidFilterException("'" + comparison + "' is not supported on a boolean attribute");
+            }
+        }
+
+        if (!(value instanceof String)) {
+            throw new InvalidFilterException("'" + comparison.attribute + "' is a string attribute");
+        }
+
+        Expression<String> string = (Expression<String>) path;
+        String text = (String) value;
+
+        switch (comparison.operator) {
+            case EQ: return cb.equal(string, text);
+            case NE: return cb.or(cb.notEqual(string, text), cb.isNull(string));
+            case CO: return cb.like(string, "%" + escapeLike(text) + "%", '\\');
+            case SW: return cb.like(string, escapeLike(text) + "%", '\\');
+            case EW: return cb.like(string, "%" + escapeLike(text), '\\');
+            case GT: return cb.greaterThan(string, text);
+            case GE: return cb.greaterThanOrEqualTo(string, text);
+            case LT: return cb.lessThan(string, text);
+            case LE: return cb.lessThanOrEqualTo(string, text);
+            default: throw new InvalidFilterException("'" + comparison + "' is not supported");
+        }
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * The entity a filter is compiled against, and the attribute path of the enclosing value path
+     */
+    private static class Scope {
+        private final Class<?> type;
+        private final From<?, ?> root;
+        private final String prefix;
+
+        private Scope(Class<?> type, From<?, ?> root, String prefix) {
+            this.type = type;
+            this.root = root;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -17,11 +17,7 @@ package com.okta.scim.database;
 
 import com.okta.scim.models.Group;
 import com.okta.scim.models.User;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -37,13 +33,4 @@ public interface GroupDatabase extends JpaRepository<Group, Long> {
      * @return The instance of {@link Group} found
      */
     List<Group> findById(String id);
-
-    /**
-     * Searches and returns all instances of {@link Group} that match a given userDisplay name
-     * @param name The userDisplay name to search
-     * @param pagable A pageable object, usually a {@link org.springframework.data.domain.PageRequest}
-     * @return A {@link Page} object with the found {@link Group} instances
-     */
-    @Query("SELECT g FROM Group g WHERE g.displayName = :name")
-    Page<Group> findByDisplayname(@Param("name") String name, Pageable pagable);
 }
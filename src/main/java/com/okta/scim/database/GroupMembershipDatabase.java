@@ -23,6 +23,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -46,9 +47,33 @@ public interface GroupMembershipDatabase extends JpaRepository<GroupMembership,
     @Query("SELECT gm FROM GroupMembership gm WHERE gm.groupId = :groupId")
     Page<GroupMembership> findByGroupId(@Param("groupId") String groupId, Pageable pagable);
 
+    /**
+     * Searches and returns all instances of {@link GroupMembership} that belong to any of the given group IDs
+     * @param groupIds The group IDs to search, must not be empty
+     * @return A {@link List} of the found {@link GroupMembership} instances
+     */
+    @Query("SELECT gm FROM GroupMembership gm WHERE gm.groupId IN :groupIds")
+    List<GroupMembership> findByGroupIdIn(@Param("groupIds") Collection<String> groupIds);
+
+    /**
+     * Gets the members of a group without loading the {@link GroupMembership} entities
+     * @param groupId The group ID to search
+     * @return The {@link Member} of each {@link GroupMembership} of the group
+     */
+    @Query("SELECT gm.userId AS userId, gm.userDisplay AS userDisplay FROM GroupMembership gm WHERE gm.groupId = :groupId")
+    List<Member> findMembers(@Param("groupId") String groupId);
+
     @Query("SELECT gm FROM GroupMembership gm WHERe gm.userId = :userId")
     Page<GroupMembership> findByUserId(@Param("userId") String userId, Pageable pageable);
 
+    /**
+     * Searches and returns all instances of {@link GroupMembership} that belong to any of the given user IDs
+     * @param userIds The user IDs to search, must not be empty
+     * @return A {@link List} of the found {@link GroupMembership} instances
+     */
+    @Query("SELECT gm FROM GroupMembership gm WHERE gm.userId IN :userIds")
+    List<GroupMembership> findByUserIdIn(@Param("userIds") Collection<String> userIds);
+
     /**
      * Searches and returns all instances of {@link GroupMembership} that match a given group ID and userId
      * @param groupId The group ID to search
@@ -58,4 +83,12 @@ public interface GroupMembershipDatabase extends JpaRepository<GroupMembership,
      */
     @Query("SELECT gm FROM GroupMembership gm WHERE gm.groupId = :groupId AND gm.userId = :userId")
     Page<GroupMembership> findByGroupIdAndUserId(@Param("groupId") String groupId, @Param("userId") String userId, Pageable pagable);
+
+    /**
+     * The columns of a {@link GroupMembership} shown in a group's members
+     */
+    interface Member {
+        String getUserId();
+        String getUserDisplay();
+    }
 }
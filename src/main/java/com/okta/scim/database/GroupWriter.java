@@ -0,0 +1,121 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Writes the changes of a group PATCH, the group row and the membership batches, in one database transaction
+ * Members are written as JDBC batches, since a single request can add or remove tens of thousands of them
+ */
+@Component
+public class GroupWriter {
+    private static final String INCREMENT_VERSION = "UPDATE groups SET version = version + 1 WHERE id = ?";
+
+    private static final String SELECT_VERSION = "SELECT version FROM groups WHERE id = ?";
+
+    private static final String UPDATE_GROUP_DISPLAY = "UPDATE groupmemberships SET group_display = ? WHERE group_id = ?";
+
+    private static final String DELETE_MEMBERSHIP = "DELETE FROM groupmemberships WHERE group_id = ? AND user_id = ?";
+
+    // Skips members that a concurrent request already added, the unique (group_id, user_id) index would reject them
+    private static final String INSERT_MEMBERSHIP = "INSERT INTO groupmemberships "
+            + "(id, group_id, user_id, group_display, user_display) "
+            + "SELECT ?, id, ?, ?, ? FROM groups WHERE id = ? "
+            + "AND NOT EXISTS (SELECT 1 FROM groupmemberships WHERE group_id = ? AND user_id = ?)";
+
+    private final GroupDatabase db;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public GroupWriter(GroupDatabase db, JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.db = db;
+        this.jdbc = jdbc;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Writes a group and its member changes, nothing changes if any row fails
+     * A changed group is saved through JPA, which checks its version, otherwise only the version is incremented,
+     * which also locks the group row until the changes commit
+     * @param group The {@link Group}, at the version the changes were based on
+     * @param groupChanged true if attributes of the group itself were set
+     * @param checkVersion true to fail if the group is no longer at its version, member changes commute otherwise
+     * @param removed The user IDs of the memberships to delete
+     * @param added The {@link GroupMembership} rows to insert, deletes run first and existing members are skipped
+     * @return The new version of the group
+     * @throws ObjectOptimisticLockingFailureException If the group changed since it was read and either
+     *                                                 the group changed or checkVersion is set
+     * @throws org.springframework.dao.DataAccessException If any row could not be written
+     */
+    public long apply(Group group, boolean groupChanged, boolean checkVersion,
+                      Collection<String> removed, Collection<GroupMembership> added) {
+        return transactionTemplate.execute(status -> {
+            long version = 0;
+
+            if (!groupChanged) {
+                // Checked before any membership is written, a stale change fails without doing any work
+                jdbc.update(INCREMENT_VERSION, group.id);
+                version = jdbc.queryForObject(SELECT_VERSION, Long.class, group.id);
+
+                if (checkVersion && version != group.version + 1) {
+                    throw new ObjectOptimisticLockingFailureException(Group.class, group.id);
+                }
+            }
+
+            if (!removed.isEmpty()) {
+                jdbc.batchUpdate(DELETE_MEMBERSHIP, new ArrayList<>(removed), removed.size(), (ps, userId) -> {
+                    ps.setString(1, group.id);
+                    ps.setString(2, userId);
+                });
+            }
+
+            if (!added.isEmpty()) {
+                jdbc.batchUpdate(INSERT_MEMBERSHIP, new ArrayList<>(added), added.size(), (ps, gm) -> {
+                    ps.setString(1, gm.id);
+                    ps.setString(2, gm.userId);
+                    ps.setString(3, gm.groupDisplay);
+                    ps.setString(4, gm.userDisplay);
+                    ps.setString(5, gm.groupId);
+                    ps.setString(6, gm.groupId);
+                    ps.setString(7, gm.userId);
+                });
+            }
+
+            if (groupChanged) {
+                Group saved = db.save(group);
+                jdbc.update(UPDATE_GROUP_DISPLAY, saved.displayName, saved.id);
+
+                // Flushes now rather than on commit, so the incremented version can be returned
+                status.flush();
+                version = saved.version;
+            }
+
+            return version;
+        });
+    }
+}
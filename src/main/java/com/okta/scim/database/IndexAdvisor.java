@@ -0,0 +1,174 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.User;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.*;
+
+/**
+ * Reports at startup how the database runs the repository queries and the list filters
+ * Each query is translated to SQL by Hibernate and explained, full table scans are logged as warnings
+ * Only HSQLDB plans are understood, other databases are skipped
+ */
+@Component
+public class IndexAdvisor {
+    private static final List<Class<?>> REPOSITORIES = Arrays.asList(UserDatabase.class, GroupDatabase.class,
+            GroupMembershipDatabase.class, RequestDatabase.class, TransactionDatabase.class);
+
+    /** The filters the list endpoints are expected to serve from an index */
+    private static final String[] USER_FILTERS = {"userName eq \"\"", "name.familyName eq \"\"",
+            "name.givenName eq \"\"", "active eq true", "groups.value eq \"\""};
+    private static final String[] GROUP_FILTERS = {"displayName eq \"\"", "members.value eq \"\""};
+
+    private Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+
+    private final EntityManagerFactory emf;
+    private final JdbcTemplate jdbc;
+    private final FilterQueries queries;
+    private final boolean enabled;
+
+    @Autowired
+    public IndexAdvisor(EntityManagerFactory emf, JdbcTemplate jdbc, FilterQueries queries,
+                        @Value("${scim.index-advisor.enabled:true}") boolean enabled) {
+        this.emf = emf;
+        this.jdbc = jdbc;
+        this.queries = queries;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        if (!enabled) {
+            return;
+        }
+
+        String database;
+
+        try {
+            database = jdbc.execute((Connection c) -> c.getMetaData().getDatabaseProductName());
+        } catch (DataAccessException e) {
+            logger.warn("Index advisor could not reach the database", e);
+            return;
+        }
+
+        if (!database.startsWith("HSQL")) {
+            logger.info("Index advisor does not support " + database + ", skipping");
+            return;
+        }
+
+        Map<String, String> jpql = new LinkedHashMap<>();
+
+        for (Class<?> repository: REPOSITORIES) {
+            for (Method method: repository.getDeclaredMethods()) {
+                Query query = method.getAnnotation(Query.class);
+
+                // Queries without a WHERE clause read the whole table by design, paging adds the ORDER BY and limit
+                if (query != null && !query.nativeQuery() && query.value().toUpperCase().contains(" WHERE ")) {
+                    jpql.put(repository.getSimpleName() + "." + method.getName(), query.value());
+                }
+            }
+        }
+
+        for (String filter: USER_FILTERS) {
+            jpql.put("GET /Users?filter=" + filter, hql(User.class, filter));
+        }
+        for (String filter: GROUP_FILTERS) {
+            jpql.put("GET /Groups?filter=" + filter, hql(Group.class, filter));
+        }
+
+        int fullScans = 0;
+
+        for (Map.Entry<String, String> query: jpql.entrySet()) {
+            try {
+                List<String> scanned = explain(toSql(query.getValue()));
+
+                if (scanned.isEmpty()) {
+                    logger.info("Index advisor: " + query.getKey() + " uses indexes");
+                } else {
+                    fullScans++;
+                    logger.warn("Index advisor: " + query.getKey() + " scans all of " + String.join(", ", scanned)
+                            + ", consider an index for: " + query.getValue());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Index advisor could not explain " + query.getKey() + ": " + e.getMessage());
+            }
+        }
+
+        logger.info("Index advisor: explained " + jpql.size() + " queries, " + fullScans + " with full table scans");
+    }
+
+    /**
+     * @return The HQL of the list query for a filter
+     */
+    private String hql(Class<?> type, String filter) {
+        return queries.findQuery(type, queries.parse(filter), null)
+                .unwrap(org.hibernate.query.Query.class)
+                .getQueryString();
+    }
+
+    /**
+     * Translates JPQL to the SQL Hibernate sends to the database
+     */
+    private String toSql(String jpql) {
+        SessionFactoryImplementor sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        QueryTranslator translator = new ASTQueryTranslatorFactory()
+                .createQueryTranslator(jpql, jpql, Collections.emptyMap(), sessionFactory, null);
+
+        translator.compile(Collections.emptyMap(), false);
+        return translator.getSQLString();
+    }
+
+    /**
+     * Runs HSQLDB's EXPLAIN PLAN FOR
+     * @param sql The query, parameters as '?'
+     * @return The tables read with a full scan, not counting IN lists HSQLDB turns into a subquery
+     */
+    private List<String> explain(String sql) {
+        List<String> plan = jdbc.queryForList("EXPLAIN PLAN FOR " + sql, String.class);
+        List<String> scanned = new ArrayList<>();
+        String table = null;
+
+        for (String line: plan) {
+            String trimmed = line.trim();
+
+            if (trimmed.startsWith("table=")) {
+                table = trimmed.substring("table=".length());
+            } else if (trimmed.startsWith("access=FULL SCAN") && table != null && !table.startsWith("SYSTEM_SUBQUERY")) {
+                scanned.add(table);
+            }
+        }
+
+        return scanned;
+    }
+}
@@ -0,0 +1,160 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.utils.RequestTimings;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statement and JDBC batch metrics
+ * Wraps the {@link DataSource} so every executed statement and JDBC batch, from Hibernate or a JdbcTemplate,
+ * is recorded: statements as the scim.jdbc.statements timer, and for the {@link RequestTimings} of the call running
+ * them, the sizes of JDBC batches as the scim.jdbc.batch.size distribution
+ * Connection pool metrics are Spring Boot's hikaricp meters
+ */
+@Component
+public class PersistenceMetrics implements BeanPostProcessor {
+    // Looked up on first use, creating the registry here would skip the registry's own customization
+    private final ObjectProvider<MeterRegistry> registry;
+    private volatile Timer statementTimer;
+    private volatile DistributionSummary batchSizes;
+
+    @Autowired
+    public PersistenceMetrics(ObjectProvider<MeterRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof BatchCountingDataSource)) {
+            return new BatchCountingDataSource((DataSource) bean);
+        }
+        return bean;
+    }
+
+    /**
+     * @return The number of statements sent to the database, each executed batch counts once
+     */
+    public long getStatementCount() {
+        return (long) statementTimer().count();
+    }
+
+    private Timer statementTimer() {
+        if (statementTimer == null) {
+            statementTimer = registry.getObject().timer("scim.jdbc.statements");
+        }
+        return statementTimer;
+    }
+
+    private void recordStatement(long nanos) {
+        statementTimer().record(nanos, TimeUnit.NANOSECONDS);
+        RequestTimings.addStatement(nanos);
+    }
+
+    private void recordBatch(int size) {
+        if (batchSizes == null) {
+            batchSizes = registry.getObject().summary("scim.jdbc.batch.size");
+        }
+        batchSizes.record(size);
+    }
+
+    /**
+     * Hands out connections whose statements report each execution and the size of each batch
+     */
+    private class BatchCountingDataSource extends DelegatingDataSource {
+        private BatchCountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return wrap(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return wrap(super.getConnection(username, password));
+        }
+
+        private Connection wrap(Connection connection) {
+            return (Connection) proxy(Connection.class, connection, (method, result, nanos) -> result instanceof Statement
+                    ? proxy(method.getReturnType(), result, this::count)
+                    : result);
+        }
+
+        private Object count(Method method, Object result, long nanos) {
+            if (method.getName().startsWith("execute")) {
+                recordStatement(nanos);
+            }
+
+            if (method.getName().equals("executeBatch")) {
+                recordBatch(((int[]) result).length);
+            } else if (method.getName().equals("executeLargeBatch")) {
+                recordBatch(((long[]) result).length);
+            }
+            return result;
+        }
+    }
+
+    private interface ResultHandler {
+        Object handle(Method method, Object result, long nanos);
+    }
+
+    /**
+     * @param type The JDBC interface to implement
+     * @param target The JDBC object to delegate to
+     * @param handler Sees, and may replace, the result of every call, along with the time the call took
+     * @return A proxy with its own identity, so pools and registries keyed by the proxy keep working
+     */
+    private static Object proxy(Class<?> type, Object target, ResultHandler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    long start = System.nanoTime();
+
+                    try {
+                        Object result = method.invoke(target, args);
+                        return handler.handle(method, result, System.nanoTime() - start);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        };
+
+        return Proxy.newProxyInstance(PersistenceMetrics.class.getClassLoader(), new Class<?>[] {type}, invocationHandler);
+    }
+}
@@ -0,0 +1,69 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call to a Spring Data repository, such as {@link UserDatabase}, as the scim.repository timer
+ * tagged with the repository, the method and the exception thrown, if any
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor {
+    // Looked up on first use, creating the registry here would skip the registry's own customization
+    private final ObjectProvider<MeterRegistry> registry;
+
+    @Autowired
+    public RepositoryMetrics(ObjectProvider<MeterRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised) {
+            // First, so the timing includes the repository's transaction
+            ((Advised) bean).addAdvice(0, timer(((Advised) bean).getProxiedInterfaces()[0].getSimpleName()));
+        }
+        return bean;
+    }
+
+    private MethodInterceptor timer(String repository) {
+        return invocation -> {
+            Timer.Sample sample = Timer.start(registry.getObject());
+            String exception = "None";
+
+            try {
+                return invocation.proceed();
+            } catch (Throwable e) {
+                exception = e.getClass().getSimpleName();
+                throw e;
+            } finally {
+                sample.stop(registry.getObject().timer("scim.repository",
+                        "repository", repository,
+                        "method", invocation.getMethod().getName(),
+                        "exception", exception));
+            }
+        };
+    }
+}
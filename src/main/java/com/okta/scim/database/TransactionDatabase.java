@@ -16,7 +16,10 @@
 package com.okta.scim.database;
 
 import com.okta.scim.models.Transaction;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -32,4 +35,38 @@ public interface TransactionDatabase extends JpaRepository<Transaction, Long> {
      * @return The instance of {@link Transaction} found
      */
     List<Transaction> findById(String id);
+
+    /**
+     * Gets a page of transactions without loading the request and response bodies
+     * @param pageable The page to return
+     * @return The {@link Summary} of each {@link Transaction} in the page
+     */
+    @Query(value = "SELECT t.id AS id, t.requestId AS requestId, t.timeStamp AS timeStamp, t.httpCode AS httpCode, "
+            + "t.method AS method, t.endpoint AS endpoint, t.javaMethod AS javaMethod, t.handlerMs AS handlerMs, "
+            + "t.dbStatements AS dbStatements, t.dbMs AS dbMs, t.serializationMs AS serializationMs, "
+            + "t.auditMs AS auditMs, "
+            + "CASE WHEN t.requestBody = '[unknown]' AND t.responseBody = '[unknown]' THEN false ELSE true END "
+            + "AS hasBodies FROM Transaction t",
+            countQuery = "SELECT COUNT(t) FROM Transaction t")
+    Page<Summary> findSummaries(Pageable pageable);
+
+    /**
+     * The columns of a {@link Transaction} shown in the transaction log
+     */
+    interface Summary {
+        String getId();
+        String getRequestId();
+        String getTimeStamp();
+        int getHttpCode();
+        String getMethod();
+        String getEndpoint();
+        String getJavaMethod();
+        Double getHandlerMs();
+        Long getDbStatements();
+        Double getDbMs();
+        Double getSerializationMs();
+        Double getAuditMs();
+        /** false when neither the request nor the response body was captured */
+        boolean getHasBodies();
+    }
 }
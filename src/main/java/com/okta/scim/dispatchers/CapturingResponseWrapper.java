@@ -0,0 +1,128 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.dispatchers;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Writes the response straight through, keeping a copy of its first bytes for the audit log
+ * Unlike Spring's ContentCachingResponseWrapper the body is never buffered whole, so a streamed list response
+ * is sent as it is written
+ */
+public class CapturingResponseWrapper extends HttpServletResponseWrapper {
+    private final ByteArrayOutputStream captured;
+    private final int limit;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * @param response The response to write to
+     * @param limit The number of bytes to keep
+     */
+    public CapturingResponseWrapper(HttpServletResponse response, int limit) {
+        super(response);
+        this.captured = new ByteArrayOutputStream(Math.min(limit, 1024));
+        this.limit = limit;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new CapturingOutputStream(super.getOutputStream());
+        }
+
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+        }
+
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+
+        super.flushBuffer();
+    }
+
+    /**
+     * @return The first bytes written to the response, up to the limit
+     */
+    public byte[] getContentAsByteArray() {
+        if (writer != null) {
+            writer.flush();
+        }
+
+        return captured.toByteArray();
+    }
+
+    private class CapturingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+
+        CapturingOutputStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (captured.size() < limit) {
+                captured.write(b);
+            }
+
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int keep = Math.min(len, limit - captured.size());
+
+            if (keep > 0) {
+                captured.write(b, off, keep);
+            }
+
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+}
@@ -15,20 +15,21 @@
 
 package com.okta.scim.dispatchers;
 
-import com.okta.scim.database.TransactionDatabase;
+import com.okta.scim.database.AuditLogWriter;
+import com.okta.scim.interceptors.RequestInterceptor;
+import com.okta.scim.models.Request;
 import com.okta.scim.models.Transaction;
+import com.okta.scim.utils.RequestTimings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.servlet.DispatcherServlet;
 import org.springframework.web.servlet.HandlerExecutionChain;
 import org.springframework.web.util.ContentCachingRequestWrapper;
-import org.springframework.web.util.ContentCachingResponseWrapper;
 import org.springframework.web.util.WebUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 
@@ -36,8 +37,11 @@ import java.net.URLDecoder;
  * Dispatch Servlet to log all transactions
  */
 public class LoggingDispatcherServlet extends DispatcherServlet {
+    /** The number of body bytes kept on a transaction row */
+    private static final int PAYLOAD_LIMIT = 5120;
+
     @Autowired
-    TransactionDatabase db;
+    AuditLogWriter writer;
 
     private Logger logger = LoggerFactory.getLogger(LoggingDispatcherServlet.class);
 
@@ -47,29 +51,47 @@ public class LoggingDispatcherServlet extends DispatcherServlet {
             request = new ContentCachingRequestWrapper(request);
         }
 
-        if (!(response instanceof ContentCachingResponseWrapper)) {
-            response = new ContentCachingResponseWrapper(response);
+        // Responses are passed through as they are written, only the logged part is kept
+        if (!(response instanceof CapturingResponseWrapper)) {
+            response = new CapturingResponseWrapper(response, PAYLOAD_LIMIT);
         }
 
+        RequestTimings timings = RequestTimings.start();
         HandlerExecutionChain handler = getHandler(request);
 
         try {
             super.doDispatch(request, response);
         } finally {
-            if (request.getRequestURI().startsWith("/scim/v2/")) {
-                log(request, response, handler);
+            try {
+                RequestTimings.startAudit();
+
+                // Set by the RequestInterceptor when requests are written together with their transaction
+                Request pending = (Request) request.getAttribute(RequestInterceptor.PENDING_REQUEST);
+                request.removeAttribute(RequestInterceptor.PENDING_REQUEST);
+
+                if (request.getRequestURI().startsWith("/scim/v2/")) {
+                    log(request, response, handler, pending, timings);
+                } else if (pending != null) {
+                    writer.write(pending, null);
+                }
+            } finally {
+                RequestTimings.end();
             }
-            updateResponse(response);
         }
     }
 
     /**
-     * Creates a {@link Transaction} for a transaction and saves it to the {@link TransactionDatabase}
+     * Creates a {@link Transaction} for a transaction and hands it to the {@link AuditLogWriter}
      * @param requestToCache The transaction {@link HttpServletRequest}
      * @param responseToCache The transaction {@link HttpServletResponse}
      * @param handler The transaction {@link HandlerExecutionChain}
+     * @param pending The {@link Request} to write along with the transaction, or null if it was already saved
+     * @param timings The {@link RequestTimings} of the transaction, its audit time ends before the row is handed over
      */
-    private void log(HttpServletRequest requestToCache, HttpServletResponse responseToCache, HandlerExecutionChain handler) throws UnsupportedEncodingException {
+    private void log(HttpServletRequest requestToCache, HttpServletResponse responseToCache, HandlerExecutionChain handler, Request pending, RequestTimings timings) throws UnsupportedEncodingException {
+        // Missing when the call failed before the RequestInterceptor ran, the failure is still logged
+        Object requestId = requestToCache.getAttribute("rid");
+
         Transaction req = new Transaction()
                 .generateId()
                 .setTimestamp()
@@ -79,9 +101,10 @@ public class LoggingDispatcherServlet extends DispatcherServlet {
                 .setJavaMethod(handler.toString())
                 .setRequestBody(getRequestPayload(requestToCache))
                 .setResponseBody(getResponsePayload(responseToCache))
-                .setRequestId(requestToCache.getAttribute("rid").toString());
+                .setRequestId(requestId == null ? null : requestId.toString())
+                .setTimings(timings);
 
-        db.save(req);
+        writer.write(pending, req);
     }
 
     /**
@@ -97,7 +120,7 @@ public class LoggingDispatcherServlet extends DispatcherServlet {
             byte[] buf = wrapper.getContentAsByteArray();
 
             if (buf.length > 0) {
-                int length = Math.min(buf.length, 5120);
+                int length = Math.min(buf.length, PAYLOAD_LIMIT);
 
                 try {
                     return new String(buf, 0, length, wrapper.getCharacterEncoding());
@@ -117,16 +140,14 @@ public class LoggingDispatcherServlet extends DispatcherServlet {
      */
     @SuppressWarnings("Duplicates")
     private String getResponsePayload(HttpServletResponse response) {
-        ContentCachingResponseWrapper wrapper = WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
+        CapturingResponseWrapper wrapper = WebUtils.getNativeResponse(response, CapturingResponseWrapper.class);
 
         if (wrapper != null) {
             byte[] buf = wrapper.getContentAsByteArray();
 
             if (buf.length > 0) {
-                int length = Math.min(buf.length, 5120);
-
                 try {
-                    return new String(buf, 0, length, wrapper.getCharacterEncoding());
+                    return new String(buf, wrapper.getCharacterEncoding());
                 } catch (UnsupportedEncodingException e) {
                     logger.error(e.getMessage(), e);
                 }
@@ -135,18 +156,4 @@ public class LoggingDispatcherServlet extends DispatcherServlet {
 
         return "[unknown]";
     }
-
-    /**
-     * Updates the response, copying the contents back
-     * @param response The {@link HttpServletResponse}
-     * @throws IOException
-     */
-    private void updateResponse(HttpServletResponse response) throws IOException {
-        ContentCachingResponseWrapper wrapper = WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
-        try {
-            wrapper.copyBodyToResponse();
-        } catch (NullPointerException e) {
-            logger.error(e.getMessage(), e);
-        }
-    }
 }
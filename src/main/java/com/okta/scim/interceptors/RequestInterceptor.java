@@ -2,7 +2,9 @@ package com.okta.scim.interceptors;
 
 import com.okta.scim.database.RequestDatabase;
 import com.okta.scim.models.Request;
+import com.okta.scim.utils.RequestTimings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
@@ -16,11 +18,24 @@ import java.net.URLDecoder;
  */
 @Component
 public class RequestInterceptor implements HandlerInterceptor {
+    /**
+     * Request attribute holding the {@link Request} when it is persisted after completion
+     */
+    public static final String PENDING_REQUEST = "pendingRequest";
+
     @Autowired
     RequestDatabase db;
 
+    /**
+     * If true, the {@link Request} is not saved here but written together with its transaction once the call completes
+     */
+    @Value("${scim.audit.combined:false}")
+    boolean combined;
+
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws UnsupportedEncodingException {
+        RequestTimings.startAudit();
+
         Request req = new Request()
                 .generateId()
                 .setTimestamp()
@@ -29,8 +44,13 @@ public class RequestInterceptor implements HandlerInterceptor {
 
         request.setAttribute("rid", req.id);
 
-        db.save(req);
+        if (combined) {
+            request.setAttribute(PENDING_REQUEST, req);
+        } else {
+            db.save(req);
+        }
 
+        RequestTimings.endAudit();
         return true;
     }
 }
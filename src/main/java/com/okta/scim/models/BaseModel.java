@@ -15,6 +15,9 @@
 
 package com.okta.scim.models;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -22,4 +25,14 @@ import java.util.Map;
  */
 public abstract class BaseModel {
     public abstract Map toScimResource();
+
+    /**
+     * Writes the SCIM resource straight to a JSON stream, without building intermediate maps
+     * Defaults to serializing {@link #toScimResource()}
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    public void writeScimResource(JsonGenerator gen) throws IOException {
+        gen.writeObject(toScimResource());
+    }
 }
@@ -15,10 +15,17 @@
 
 package com.okta.scim.models;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.okta.scim.utils.AttributeSetters;
+import com.okta.scim.utils.ETags;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.Version;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -28,8 +35,16 @@ import java.util.Map;
  * Database schema for {@link Group}
  */
 @Entity
-@Table(name = "groups")
+@Table(name = "groups", indexes = {
+        @Index(name = "idx_groups_display_name", columnList = "displayName")
+})
 public class Group extends BaseModel {
+    /**
+     * The attributes a PATCH can set, members are changed through {@link GroupMembership} rows
+     */
+    public static final AttributeSetters<Group> ATTRIBUTES = new AttributeSetters<Group>()
+            .string("displayName", 250, true, (group, value) -> group.displayName = value);
+
     /**
      * The unique identifier of the object
      * UUID4 following the RFC 7643 requirement
@@ -46,6 +61,14 @@ public class Group extends BaseModel {
     @Column(nullable = false, length = 250)
     public String displayName;
 
+    /**
+     * Incremented when the group or its members change, see {@link com.okta.scim.database.GroupWriter}
+     * Shown as meta.version and the ETag header
+     */
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    public Long version;
+
     public Group() {}
 
     public Group(Map<String, Object> resource){
@@ -81,8 +104,56 @@ public class Group extends BaseModel {
         Map<String, Object> meta = new HashMap<>();
         meta.put("resourceType", "Group");
         meta.put("location", ("/scim/v2/Groups/" + this.id));
+        if (this.version != null) {
+            meta.put("version", ETags.of(this.version));
+        }
         returnValue.put("meta", meta);
 
         return returnValue;
     }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void writeScimResource(JsonGenerator gen) throws IOException {
+        writeScimResource(gen, null);
+    }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @param members The {@link GroupMembership} instances to list under "members", or null to leave the attribute out
+     * @throws IOException If writing fails
+     */
+    public void writeScimResource(JsonGenerator gen, List<GroupMembership> members) throws IOException {
+        gen.writeStartObject();
+
+        gen.writeArrayFieldStart("schemas");
+        gen.writeString("urn:ietf:params:scim:schemas:core:2.0:Group");
+        gen.writeEndArray();
+        gen.writeStringField("id", this.id);
+        gen.writeStringField("displayName", this.displayName);
+
+        // Meta information
+        gen.writeObjectFieldStart("meta");
+        gen.writeStringField("resourceType", "Group");
+        gen.writeStringField("location", "/scim/v2/Groups/" + this.id);
+        if (this.version != null) {
+            gen.writeStringField("version", ETags.of(this.version));
+        }
+        gen.writeEndObject();
+
+        if (members != null) {
+            gen.writeArrayFieldStart("members");
+            for (GroupMembership gm: members) {
+                gm.writeScimResource(gen);
+            }
+            gen.writeEndArray();
+        }
+
+        gen.writeEndObject();
+    }
 }
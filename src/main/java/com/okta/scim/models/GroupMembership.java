@@ -15,10 +15,11 @@
 
 package com.okta.scim.models;
 
-import javax.persistence.Column;
-import javax.persistence.Entity;
-import javax.persistence.Id;
-import javax.persistence.Table;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,8 +27,12 @@ import java.util.Map;
  * Database schema for {@link GroupMembership}
  */
 @Entity
-@Table(name = "groupmemberships")
-public class GroupMembership extends BaseModel {
+@Table(name = "groupmemberships", indexes = {
+        // Also serves lookups by groupId alone
+        @Index(name = "idx_groupmemberships_group_user", columnList = "groupId, userId", unique = true),
+        @Index(name = "idx_groupmemberships_user_id", columnList = "userId")
+})
+public class GroupMembership extends BaseModel implements Persistable<String> {
     /**
      * The unique identifier of the object
      * UUID4 following the RFC 7643 requirement
@@ -48,6 +53,29 @@ public class GroupMembership extends BaseModel {
     @Column
     public String userDisplay;
 
+    /**
+     * Memberships get their ID before they are saved, so Spring Data cannot tell new ones from the ID
+     * Without this every save() of a new membership would SELECT it first, and inserts could not be batched
+     */
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        isNew = false;
+    }
+
     public GroupMembership() {}
 
     public GroupMembership(Map<String, Object> resource){
@@ -89,4 +117,29 @@ public class GroupMembership extends BaseModel {
 
         return returnValue;
     }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void writeScimResource(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("value", this.userId);
+        gen.writeStringField("display", this.userDisplay);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Writes the same JSON as {@link #toUserScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    public void writeUserScimResource(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("value", this.groupId);
+        gen.writeStringField("display", this.groupDisplay);
+        gen.writeEndObject();
+    }
 }
@@ -18,9 +18,11 @@ package com.okta.scim.models;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.time.Clock;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.UUID;
 
@@ -28,8 +30,13 @@ import java.util.UUID;
  * Database schema for {@link Request}
  */
 @Entity
-@Table(name = "requests")
+@Table(name = "requests", indexes = {
+        @Index(name = "idx_requests_time_stamp", columnList = "timeStamp")
+})
 public class Request extends BaseModel {
+    /** Always three fraction digits, LocalDateTime.toString() drops them on a whole second */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
     /**
      * The unique identifier of the transaction
      */
@@ -68,7 +75,7 @@ public class Request extends BaseModel {
      * @return The {@link Request} instance
      */
     public Request setTimestamp() {
-        this.timeStamp = LocalDateTime.now(Clock.systemUTC()).toString().substring(0, 23) + "Z";
+        this.timeStamp = LocalDateTime.now(Clock.systemUTC()).format(TIMESTAMP);
         return this;
     }
 
@@ -15,12 +15,16 @@
 
 package com.okta.scim.models;
 
+import com.okta.scim.utils.RequestTimings;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.time.Clock;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.UUID;
 
@@ -28,8 +32,13 @@ import java.util.UUID;
  * Database schema for {@link Transaction}
  */
 @Entity
-@Table(name = "transactions")
+@Table(name = "transactions", indexes = {
+        @Index(name = "idx_transactions_time_stamp", columnList = "timeStamp")
+})
 public class Transaction extends BaseModel {
+    /** Always three fraction digits, LocalDateTime.toString() drops them on a whole second */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
     /**
      * The unique identifier of the transaction
      */
@@ -85,7 +94,7 @@ public class Transaction extends BaseModel {
      * @return The {@link Transaction} instance
      */
     public Transaction setTimestamp() {
-        this.timeStamp = LocalDateTime.now(Clock.systemUTC()).toString().substring(0, 23) + "Z";
+        this.timeStamp = LocalDateTime.now(Clock.systemUTC()).format(TIMESTAMP);
         return this;
     }
 
@@ -201,6 +210,51 @@ public class Transaction extends BaseModel {
         return this;
     }
 
+    /**
+     * Wall-clock time of the call, in milliseconds, including the DB and serialization time
+     * and excluding the audit time
+     */
+    @Column
+    public Double handlerMs;
+
+    /**
+     * The number of SQL statements the call executed
+     */
+    @Column
+    public Long dbStatements;
+
+    /**
+     * Time spent executing the SQL statements, in milliseconds
+     */
+    @Column
+    public Double dbMs;
+
+    /**
+     * Time spent writing JSON responses, in milliseconds
+     */
+    @Column
+    public Double serializationMs;
+
+    /**
+     * Time the request thread spent on the audit log, in milliseconds
+     */
+    @Column
+    public Double auditMs;
+
+    /**
+     * Set the latency breakdown of the call
+     * @param timings The {@link RequestTimings} of the call
+     * @return The {@link Transaction} instance
+     */
+    public Transaction setTimings(RequestTimings timings) {
+        this.handlerMs = timings.getHandlerMs();
+        this.dbStatements = timings.getDbStatements();
+        this.dbMs = timings.getDbMs();
+        this.serializationMs = timings.getSerializationMs();
+        this.auditMs = timings.getAuditMs();
+        return this;
+    }
+
     public Transaction() {}
 
     @Override
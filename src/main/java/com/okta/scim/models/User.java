@@ -15,11 +15,18 @@
 
 package com.okta.scim.models;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.okta.scim.utils.AttributeSetters;
+import com.okta.scim.utils.ETags;
+
 import javax.persistence.Column;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Entity;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -29,8 +36,22 @@ import java.util.List;
  * Database schema for {@link User}
  */
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_family_name", columnList = "familyName"),
+        @Index(name = "idx_users_given_name", columnList = "givenName"),
+        @Index(name = "idx_users_active", columnList = "active")
+})
 public class User extends BaseModel {
+    /**
+     * The attributes a PATCH can set
+     */
+    public static final AttributeSetters<User> ATTRIBUTES = new AttributeSetters<User>()
+            .string("userName", 250, true, (user, value) -> user.userName = value)
+            .bool("active", (user, value) -> user.active = value)
+            .string("name.givenName", 250, false, (user, value) -> user.givenName = value)
+            .string("name.familyName", 250, false, (user, value) -> user.familyName = value)
+            .string("name.middleName", 250, false, (user, value) -> user.middleName = value);
+
     /**
      * The unique identifier of the user
      * UUID4 following the RFC 7643 requirement
@@ -75,6 +96,14 @@ public class User extends BaseModel {
     @Column(length=250)
     public String givenName;
 
+    /**
+     * Incremented on every update, a write based on an older version fails instead of overwriting it
+     * Shown as meta.version and the ETag header, see {@link ETags}
+     */
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    public Long version;
+
     public User() {}
 
     public User(Map<String, Object> resource){
@@ -135,6 +164,9 @@ public class User extends BaseModel {
         Map<String, Object> meta = new HashMap<>();
         meta.put("resourceType", "User");
         meta.put("location", ("/scim/v2/Users/" + this.id));
+        if (this.version != null) {
+            meta.put("version", ETags.of(this.version));
+        }
         returnValue.put("meta", meta);
 
         List<Map<String, Object>> emails = new ArrayList<>();
@@ -147,4 +179,65 @@ public class User extends BaseModel {
 
         return returnValue;
     }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void writeScimResource(JsonGenerator gen) throws IOException {
+        writeScimResource(gen, null);
+    }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()} straight to a JSON stream
+     * @param gen The JSON stream
+     * @param groups The {@link GroupMembership} instances to list under "groups", or null to leave the attribute out
+     * @throws IOException If writing fails
+     */
+    public void writeScimResource(JsonGenerator gen, List<GroupMembership> groups) throws IOException {
+        gen.writeStartObject();
+
+        gen.writeArrayFieldStart("schemas");
+        gen.writeString("urn:ietf:params:scim:schemas:core:2.0:User");
+        gen.writeEndArray();
+        gen.writeStringField("id", this.id);
+        gen.writeObjectField("active", this.active);
+        gen.writeStringField("userName", this.userName);
+
+        // Name
+        gen.writeObjectFieldStart("name");
+        gen.writeStringField("familyName", this.familyName);
+        gen.writeStringField("givenName", this.givenName);
+        gen.writeStringField("middleName", this.middleName);
+        gen.writeEndObject();
+
+        // Meta information
+        gen.writeObjectFieldStart("meta");
+        gen.writeStringField("resourceType", "User");
+        gen.writeStringField("location", "/scim/v2/Users/" + this.id);
+        if (this.version != null) {
+            gen.writeStringField("version", ETags.of(this.version));
+        }
+        gen.writeEndObject();
+
+        gen.writeArrayFieldStart("emails");
+        gen.writeStartObject();
+        gen.writeBooleanField("primary", true);
+        gen.writeStringField("value", this.userName);
+        gen.writeStringField("type", "work");
+        gen.writeEndObject();
+        gen.writeEndArray();
+
+        if (groups != null) {
+            gen.writeArrayFieldStart("groups");
+            for (GroupMembership gm: groups) {
+                gm.writeUserScimResource(gen);
+            }
+            gen.writeEndArray();
+        }
+
+        gen.writeEndObject();
+    }
 }
@@ -0,0 +1,115 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The attributes PATCH can set on a model, each with a typed setter that validates the value first
+ * Built once per model, so applying an operation is a map lookup and a lambda call rather than reflection
+ * Paths are matched case-insensitively, sub-attributes separated by dots as in "name.givenName"
+ * @param <T> The model
+ */
+public class AttributeSetters<T> {
+    private final Map<String, BiConsumer<T, Object>> setters = new HashMap<>();
+
+    /**
+     * Adds a string attribute
+     * @param path The SCIM attribute path
+     * @param maxLength The longest value the column holds
+     * @param required true if the attribute cannot be null
+     * @param setter Sets the validated value
+     * @return This, to chain attributes
+     */
+    public AttributeSetters<T> string(String path, int maxLength, boolean required, BiConsumer<T, String> setter) {
+        setters.put(path.toLowerCase(), (target, value) -> {
+            if (value == null) {
+                if (required) {
+                    throw new InvalidAttributeException("invalidValue", "Attribute '" + path + "' is required.");
+                }
+                setter.accept(target, null);
+            } else if (!(value instanceof String)) {
+                throw new InvalidAttributeException("invalidValue", "Attribute '" + path + "' must be a string.");
+            } else if (((String) value).length() > maxLength) {
+                throw new InvalidAttributeException("invalidValue",
+                        "Attribute '" + path + "' must be at most " + maxLength + " characters.");
+            } else {
+                setter.accept(target, (String) value);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a boolean attribute, also accepting the strings "true" and "false" some clients send
+     * @param path The SCIM attribute path
+     * @param setter Sets the validated value
+     * @return This, to chain attributes
+     */
+    public AttributeSetters<T> bool(String path, BiConsumer<T, Boolean> setter) {
+        setters.put(path.toLowerCase(), (target, value) -> {
+            if (value instanceof Boolean) {
+                setter.accept(target, (Boolean) value);
+            } else if ("true".equalsIgnoreCase(String.valueOf(value)) || "false".equalsIgnoreCase(String.valueOf(value))) {
+                setter.accept(target, Boolean.valueOf((String) value));
+            } else {
+                throw new InvalidAttributeException("invalidValue", "Attribute '" + path + "' must be a boolean.");
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Sets one attribute
+     * @param target The model to update
+     * @param path The SCIM attribute path
+     * @param value The new value, null to clear the attribute
+     * @throws InvalidAttributeException If there is no such attribute or the value is not valid for it
+     */
+    public void set(T target, String path, Object value) {
+        BiConsumer<T, Object> setter = setters.get(path.toLowerCase());
+
+        if (setter == null) {
+            throw new InvalidAttributeException("invalidPath", "Attribute '" + path + "' cannot be modified.");
+        }
+
+        setter.accept(target, value);
+    }
+
+    /**
+     * Sets every attribute of a PATCH value object, nested objects such as "name" are set per sub-attribute
+     * @param target The model to update
+     * @param attributes Attribute names to values
+     * @throws InvalidAttributeException If there is no such attribute or a value is not valid for it
+     */
+    public void setAll(T target, Map<String, Object> attributes) {
+        setAll(target, "", attributes);
+    }
+
+    private void setAll(T target, String prefix, Map<String, Object> attributes) {
+        for (Map.Entry<String, Object> attribute: attributes.entrySet()) {
+            String path = prefix + attribute.getKey();
+
+            if (attribute.getValue() instanceof Map && !setters.containsKey(path.toLowerCase())) {
+                setAll(target, path + ".", (Map<String, Object>) attribute.getValue());
+            } else {
+                set(target, path, attribute.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a stream a chunk at a time, so what its elements need can be loaded once per chunk instead of once per element
+ */
+public class Chunks {
+    /**
+     * Wraps a stream, handing each chunk of elements to a loader before the first of them is returned
+     * @param source The stream to read, closed with the returned stream
+     * @param size The number of elements per chunk
+     * @param loader Called with each chunk, e.g. to load their group memberships with one query
+     * @return The elements of the source, in order
+     */
+    public static <T> Stream<T> of(Stream<T> source, int size, Consumer<List<T>> loader) {
+        Iterator<T> elements = source.iterator();
+
+        Iterator<T> chunked = new Iterator<T>() {
+            private List<T> chunk = new ArrayList<>(0);
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next < chunk.size()) {
+                    return true;
+                }
+
+                if (!elements.hasNext()) {
+                    return false;
+                }
+
+                chunk = new ArrayList<>(size);
+                next = 0;
+
+                while (chunk.size() < size && elements.hasNext()) {
+                    chunk.add(elements.next());
+                }
+
+                loader.accept(chunk);
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return chunk.get(next++);
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunked, Spliterator.ORDERED), false)
+                .onClose(source::close);
+    }
+}
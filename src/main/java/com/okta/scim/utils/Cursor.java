@@ -0,0 +1,57 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursors for keyset pagination
+ * A cursor wraps the ID of the last resource returned, list queries continue with the next greater ID
+ */
+public class Cursor {
+    private static final String PREFIX = "id:";
+
+    /**
+     * Creates the cursor pointing after a resource
+     * @param id The ID of the last resource on the page
+     * @return The opaque cursor
+     */
+    public static String encode(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the resource ID out of a cursor
+     * An empty cursor starts at the beginning of the result set
+     * @param cursor The opaque cursor, as given by the client
+     * @return The ID to continue after
+     * @throws IllegalArgumentException If the cursor was not issued by {@link #encode(String)}
+     */
+    public static String decode(String cursor) {
+        if (cursor.isEmpty()) {
+            return "";
+        }
+
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+        if (!decoded.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        return decoded.substring(PREFIX.length());
+    }
+}
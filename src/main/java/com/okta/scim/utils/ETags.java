@@ -0,0 +1,58 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+/**
+ * Entity tags of versioned resources, as sent in the ETag header and meta.version
+ * Weak tags, since the JSON of a version can differ in formatting, as RFC 7644 section 3.14 allows
+ */
+public final class ETags {
+    private ETags() {}
+
+    /**
+     * @param version The version column of the resource
+     * @return The entity tag, W/"version", or null for a resource that was never saved through JPA
+     */
+    public static String of(Long version) {
+        return version == null ? null : "W/\"" + version + "\"";
+    }
+
+    /**
+     * Evaluates an If-Match header, comparing tags weakly
+     * @param ifMatch The header, a comma-separated list of tags or "*", or null when the request has none
+     * @param etag The current entity tag of the resource
+     * @return true if the request may modify the resource
+     */
+    public static boolean matches(String ifMatch, String etag) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return true;
+        }
+
+        String current = opaque(etag);
+
+        for (String tag: ifMatch.split(",")) {
+            if (opaque(tag.trim()).equals(current)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag != null && tag.startsWith("W/") ? tag.substring(2) : String.valueOf(tag);
+    }
+}
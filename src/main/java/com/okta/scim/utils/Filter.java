@@ -0,0 +1,142 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+/**
+ * A parsed SCIM filter expression, see RFC 7644 section 3.4.2.2
+ * {@link #toString()} gives a canonical form, equal for filters that differ only in case or whitespace
+ */
+public abstract class Filter {
+    /**
+     * Comparison operators of attribute expressions
+     */
+    public enum Operator {
+        EQ, NE, CO, SW, EW, GT, GE, LT, LE
+    }
+
+    /**
+     * Parses a filter, see {@link FilterParser}
+     * @param filter The filter as given in the request
+     * @return The parsed filter
+     * @throws InvalidFilterException If the filter is not valid SCIM filter syntax
+     */
+    public static Filter parse(String filter) {
+        return new FilterParser(filter).parse();
+    }
+
+    /**
+     * Two filters joined by "and" or "or"
+     */
+    public static class Logical extends Filter {
+        public final boolean and;
+        public final Filter left;
+        public final Filter right;
+
+        public Logical(boolean and, Filter left, Filter right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + (and ? " and " : " or ") + right + ")";
+        }
+    }
+
+    /**
+     * A negated filter: not (filter)
+     */
+    public static class Not extends Filter {
+        public final Filter filter;
+
+        public Not(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public String toString() {
+            return "not (" + filter + ")";
+        }
+    }
+
+    /**
+     * An attribute compared to a value: attr op value
+     */
+    public static class Comparison extends Filter {
+        /** Lower-case attribute path, sub-attributes separated by dots */
+        public final String attribute;
+        public final Operator operator;
+        /** A {@link String}, {@link Boolean}, {@link java.math.BigDecimal} or null */
+        public final Object value;
+
+        public Comparison(String attribute, Operator operator, Object value) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return attribute + " " + operator.name().toLowerCase() + " " + quote(value);
+        }
+    }
+
+    /**
+     * An attribute that has a value: attr pr
+     */
+    public static class Present extends Filter {
+        /** Lower-case attribute path, sub-attributes separated by dots */
+        public final String attribute;
+
+        public Present(String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public String toString() {
+            return attribute + " pr";
+        }
+    }
+
+    /**
+     * A filter on the sub-attributes of one value of a complex attribute: attr[filter]
+     */
+    public static class ValuePath extends Filter {
+        /** Lower-case attribute path */
+        public final String attribute;
+        /** The filter, with attribute paths relative to {@link #attribute} */
+        public final Filter filter;
+
+        public ValuePath(String attribute, Filter filter) {
+            this.attribute = attribute;
+            this.filter = filter;
+        }
+
+        @Override
+        public String toString() {
+            return attribute + "[" + filter + "]";
+        }
+    }
+
+    private static String quote(Object value) {
+        if (!(value instanceof String)) {
+            return String.valueOf(value);
+        }
+
+        return "\"" + ((String) value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,268 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import java.math.BigDecimal;
+import java.util.regex.Pattern;
+
+/**
+ * Recursive descent parser for SCIM filters, see RFC 7644 section 3.4.2.2
+ * Supports and/or/not, grouping, every comparison operator, pr and value paths such as emails[type eq "work"]
+ * "and" binds tighter than "or"; keywords, operators and attribute names are case-insensitive
+ */
+public class FilterParser {
+    private static final Pattern ATTRIBUTE = Pattern.compile("[A-Za-z][\\w$-]*(\\.[A-Za-z][\\w$-]*)?");
+
+    private final String input;
+    private int position;
+    private boolean inValuePath;
+
+    public FilterParser(String input) {
+        this.input = input;
+    }
+
+    /**
+     * @return The parsed filter
+     * @throws InvalidFilterException If the input is not a valid filter
+     */
+    public Filter parse() {
+        Filter filter = or();
+
+        if (peek() != null) {
+            throw error("Unexpected '" + peek() + "'");
+        }
+
+        return filter;
+    }
+
+    private Filter or() {
+        Filter filter = and();
+
+        while (peekKeyword("or")) {
+            next();
+            filter = new Filter.Logical(false, filter, and());
+        }
+
+        return filter;
+    }
+
+    private Filter and() {
+        Filter filter = unary();
+
+        while (peekKeyword("and")) {
+            next();
+            filter = new Filter.Logical(true, filter, unary());
+        }
+
+        return filter;
+    }
+
+    private Filter unary() {
+        if (peekKeyword("not")) {
+            next();
+            expect("(");
+            Filter filter = or();
+            expect(")");
+            return new Filter.Not(filter);
+        }
+
+        if ("(".equals(peek())) {
+            next();
+            Filter filter = or();
+            expect(")");
+            return filter;
+        }
+
+        String attribute = attribute(next());
+
+        if ("[".equals(peek())) {
+            if (inValuePath) {
+                throw error("Value paths cannot be nested");
+            }
+
+            next();
+            inValuePath = true;
+            Filter filter = or();
+            inValuePath = false;
+            expect("]");
+            return new Filter.ValuePath(attribute, filter);
+        }
+
+        String operator = next();
+
+        if (operator == null) {
+            throw error("Missing operator after '" + attribute + "'");
+        }
+        if (operator.equalsIgnoreCase("pr")) {
+            return new Filter.Present(attribute);
+        }
+
+        try {
+            return new Filter.Comparison(attribute, Filter.Operator.valueOf(operator.toUpperCase()), value(next()));
+        } catch (IllegalArgumentException e) {
+            if (e instanceof InvalidFilterException) {
+                throw e;
+            }
+            throw error("Unknown operator '" + operator + "'");
+        }
+    }
+
+    /**
+     * @param token An attribute path, optionally prefixed with its schema URN
+     * @return The lower-case attribute path
+     */
+    private String attribute(String token) {
+        if (token == null) {
+            throw error("Missing attribute");
+        }
+
+        String attribute = token;
+
+        if (attribute.regionMatches(true, 0, "urn:", 0, 4)) {
+            attribute = attribute.substring(attribute.lastIndexOf(':') + 1);
+        }
+
+        if (!ATTRIBUTE.matcher(attribute).matches()) {
+            throw error("Invalid attribute '" + token + "'");
+        }
+
+        return attribute.toLowerCase();
+    }
+
+    private Object value(String token) {
+        if (token == null) {
+            throw error("Missing value");
+        }
+        if (token.startsWith("\"")) {
+            return unescape(token);
+        }
+        if (token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false")) {
+            return Boolean.valueOf(token);
+        }
+        if (token.equalsIgnoreCase("null")) {
+            return null;
+        }
+
+        try {
+            return new BigDecimal(token);
+        } catch (NumberFormatException e) {
+            throw error("Invalid value '" + token + "'");
+        }
+    }
+
+    /**
+     * @param token A quoted JSON string
+     * @return The string without quotes and escapes
+     */
+    private String unescape(String token) {
+        StringBuilder value = new StringBuilder(token.length());
+
+        for (int i = 1; i < token.length() - 1; i++) {
+            char c = token.charAt(i);
+
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = token.charAt(++i);
+
+            switch (escaped) {
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= token.length() - 1) {
+                        throw error("Invalid escape in " + token);
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(token.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid escape in " + token);
+                    }
+                    i += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+
+        return value.toString();
+    }
+
+    private void expect(String token) {
+        String found = next();
+
+        if (!token.equals(found)) {
+            throw error("Expected '" + token + "'" + (found == null ? "" : " but found '" + found + "'"));
+        }
+    }
+
+    private boolean peekKeyword(String keyword) {
+        String token = peek();
+        return token != null && token.equalsIgnoreCase(keyword);
+    }
+
+    private String peek() {
+        int start = position;
+        String token = next();
+        position = start;
+        return token;
+    }
+
+    /**
+     * Reads the next token: a bracket, a quoted string, or a run of other non-space characters
+     * @return The token, or null at the end of the input
+     */
+    private String next() {
+        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+
+        if (position == input.length()) {
+            return null;
+        }
+
+        int start = position;
+        char c = input.charAt(position++);
+
+        if (c == '(' || c == ')' || c == '[' || c == ']') {
+            return String.valueOf(c);
+        }
+
+        if (c == '"') {
+            while (position < input.length() && input.charAt(position) != '"') {
+                position += input.charAt(position) == '\\' ? 2 : 1;
+            }
+            if (position >= input.length()) {
+                throw error("Unterminated string");
+            }
+            return input.substring(start, ++position);
+        }
+
+        while (position < input.length() && "()[]\"".indexOf(input.charAt(position)) < 0
+                && !Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+
+        return input.substring(start, position);
+    }
+
+    private InvalidFilterException error(String message) {
+        return new InvalidFilterException(message + " in filter '" + input + "'");
+    }
+}
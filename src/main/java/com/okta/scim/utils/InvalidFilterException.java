@@ -0,0 +1,26 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+/**
+ * Thrown for filters that cannot be parsed, or that use attributes or operators the resource does not support
+ * Reported to clients as a 400 with scimType "invalidFilter"
+ */
+public class InvalidFilterException extends IllegalArgumentException {
+    public InvalidFilterException(String message) {
+        super(message);
+    }
+}
@@ -15,24 +15,53 @@
 
 package com.okta.scim.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.okta.scim.models.BaseModel;
 import com.okta.scim.models.User;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Optional;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Returns an array of SCIM resources into a Query Resource
+ * Serializes itself with Jackson by streaming each resource, see {@link #serialize(JsonGenerator, SerializerProvider)}
+ * The resources are either a loaded {@link List} or a {@link Stream} read while writing, e.g. from a database cursor
  */
-public class ListResponse<T extends BaseModel> {
+public class ListResponse<T extends BaseModel> implements JsonSerializable {
+    // Not a bean, so the timer is registered through the global registry Spring Boot adds its registries to
+    private static final Timer SERIALIZATION = Metrics.timer("scim.serialization", "stage", "list");
+
+    /**
+     * Writes one resource of the list to a JSON stream
+     */
+    @FunctionalInterface
+    public interface ResourceWriter<T> {
+        void write(T resource, JsonGenerator gen) throws IOException;
+    }
+
     private List<T> list;
+    private Stream<T> stream;
     private int startIndex;
     private int count;
     private int totalResults;
+    private boolean cursorPaging;
+    private String nextCursor;
+    private Function<T, String> cursorId;
+    private ResourceWriter<T> writer = BaseModel::writeScimResource;
 
     public ListResponse(){
         this.list = new ArrayList<>();
@@ -51,22 +80,84 @@ public class ListResponse<T extends BaseModel> {
         this.totalResults = totalResults.orElse(0);
     }
 
+    /**
+     * Streams the resources while writing, the stream is closed once written
+     * At most count resources are written, itemsPerPage follows the Resources as it is only known once they are written
+     * @param stream The resources of the page
+     * @param startIndex The 1-based index of the first resource
+     * @param count The page size
+     * @param totalResults The number of resources matching the request
+     */
+    public ListResponse(Stream<T> stream, Optional<Integer> startIndex,
+                        Optional<Integer> count, Optional<Integer> totalResults){
+        this(new ArrayList<>(), startIndex, count, totalResults);
+        this.stream = stream;
+    }
+
+    /**
+     * Switches a streamed response to cursor pagination, which reports nextCursor instead of startIndex
+     * The stream is expected to hold one resource more than count when another page follows,
+     * nextCursor then points after the last resource written
+     * @param cursorId Returns the ID a resource is paged by
+     * @return The {@link ListResponse} instance
+     */
+    public ListResponse<T> setCursorPaging(Function<T, String> cursorId) {
+        this.cursorPaging = true;
+        this.cursorId = cursorId;
+        return this;
+    }
+
+    /**
+     * Switches the response to cursor pagination, which reports nextCursor instead of startIndex
+     * @param nextCursor The cursor of the next page, or null on the last page
+     * @return The {@link ListResponse} instance
+     */
+    public ListResponse<T> setNextCursor(String nextCursor) {
+        this.cursorPaging = true;
+        this.nextCursor = nextCursor;
+        return this;
+    }
+
+    /**
+     * Replaces how each resource is written when streaming, e.g. to add attributes loaded separately
+     * @param writer The {@link ResourceWriter} to use
+     * @return The {@link ListResponse} instance
+     */
+    public ListResponse<T> setResourceWriter(ResourceWriter<T> writer) {
+        this.writer = writer;
+        return this;
+    }
+
     /**
      * @return JSON {@link Map} of {@link ListResponse} object
+     * @throws IllegalStateException If the resources are streamed, those responses are only written by
+     * {@link #serialize(JsonGenerator, SerializerProvider)}
      */
     public HashMap<String, Object> toScimResource(){
+        if (this.stream != null) {
+            throw new IllegalStateException("A streamed ListResponse can only be serialized");
+        }
+
         HashMap<String, Object> returnValue = new HashMap<>();
 
         List<String> schemas = new ArrayList<>();
         schemas.add("urn:ietf:params:scim:api:messages:2.0:ListResponse");
         returnValue.put("schemas", schemas);
         returnValue.put("totalResults", this.totalResults);
-        returnValue.put("startIndex", this.startIndex);
+
+        if (this.cursorPaging) {
+            if (this.nextCursor != null) {
+                returnValue.put("nextCursor", this.nextCursor);
+            }
+        } else {
+            returnValue.put("startIndex", this.startIndex);
+        }
 
         List<Map> resources = this.list.stream().map(T::toScimResource).collect(Collectors.toList());
 
-        if (this.count > this.totalResults) {
-            this.count = this.totalResults;
+        // itemsPerPage is the number of resources actually returned on this page
+        if (this.count > resources.size()) {
+            this.count = resources.size();
         }
 
         if (this.count != 0) {
@@ -77,4 +168,105 @@ public class ListResponse<T extends BaseModel> {
 
         return returnValue;
     }
+
+    /**
+     * Writes the same JSON as {@link #toScimResource()}, streaming each resource through the {@link ResourceWriter}
+     * Timed as the scim.serialization timer with stage "list", which includes reading a streamed list
+     * @param gen The JSON stream
+     * @param serializers The Jackson serializer provider
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        long start = System.nanoTime();
+
+        try {
+            write(gen);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            SERIALIZATION.record(nanos, TimeUnit.NANOSECONDS);
+            RequestTimings.addSerialization(nanos);
+        }
+    }
+
+    private void write(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+
+        gen.writeArrayFieldStart("schemas");
+        gen.writeString("urn:ietf:params:scim:api:messages:2.0:ListResponse");
+        gen.writeEndArray();
+        gen.writeNumberField("totalResults", this.totalResults);
+
+        if (this.cursorPaging) {
+            if (this.nextCursor != null) {
+                gen.writeStringField("nextCursor", this.nextCursor);
+            }
+        } else {
+            gen.writeNumberField("startIndex", this.startIndex);
+        }
+
+        if (this.stream != null) {
+            writeStream(gen);
+            gen.writeEndObject();
+            return;
+        }
+
+        // itemsPerPage is the number of resources actually returned on this page
+        int itemsPerPage = Math.min(this.count, this.list.size());
+
+        if (itemsPerPage != 0) {
+            gen.writeNumberField("itemsPerPage", itemsPerPage);
+        }
+
+        gen.writeArrayFieldStart("Resources");
+        for (T resource: this.list) {
+            this.writer.write(resource, gen);
+        }
+        gen.writeEndArray();
+
+        gen.writeEndObject();
+    }
+
+    /**
+     * Writes the Resources of a streamed list, then itemsPerPage and nextCursor
+     * @param gen The JSON stream
+     * @throws IOException If writing fails
+     */
+    private void writeStream(JsonGenerator gen) throws IOException {
+        int itemsPerPage = 0;
+        T last = null;
+        boolean more = false;
+
+        try (Stream<T> resources = this.stream) {
+            Iterator<T> it = resources.iterator();
+
+            gen.writeArrayFieldStart("Resources");
+            while (it.hasNext()) {
+                T resource = it.next();
+
+                if (itemsPerPage == this.count) {
+                    more = true;
+                    break;
+                }
+
+                this.writer.write(resource, gen);
+                last = resource;
+                itemsPerPage++;
+            }
+            gen.writeEndArray();
+        }
+
+        if (itemsPerPage != 0) {
+            gen.writeNumberField("itemsPerPage", itemsPerPage);
+        }
+
+        if (this.cursorId != null && more && last != null) {
+            gen.writeStringField("nextCursor", Cursor.encode(this.cursorId.apply(last)));
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
 }
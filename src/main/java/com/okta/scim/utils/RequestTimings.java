@@ -0,0 +1,126 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+/**
+ * Wall-clock phases of the call being handled on the current thread, recorded on its {@link com.okta.scim.models.Transaction}
+ * Started and ended by the dispatcher servlet, the other phases are added by the code doing the work
+ * and ignored outside of a call
+ */
+public class RequestTimings {
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private long dbStatements;
+    private long dbNanos;
+    private long serializationNanos;
+    private long auditNanos;
+    private long auditStart = -1;
+
+    private RequestTimings() {
+    }
+
+    /**
+     * Starts timing a call on the current thread
+     * @return The {@link RequestTimings} of the call
+     */
+    public static RequestTimings start() {
+        RequestTimings timings = new RequestTimings();
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    /**
+     * Stops recording phases on the current thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Adds a statement executed on the current thread, statements run for the audit log count as audit time only
+     * @param nanos The time the statement took to execute
+     */
+    public static void addStatement(long nanos) {
+        RequestTimings timings = CURRENT.get();
+
+        if (timings != null && timings.auditStart < 0) {
+            timings.dbStatements++;
+            timings.dbNanos += nanos;
+        }
+    }
+
+    /**
+     * @param nanos Time spent writing JSON
+     */
+    public static void addSerialization(long nanos) {
+        RequestTimings timings = CURRENT.get();
+
+        if (timings != null) {
+            timings.serializationNanos += nanos;
+        }
+    }
+
+    /**
+     * Starts an audit log phase on the current thread, until {@link #endAudit()}
+     */
+    public static void startAudit() {
+        RequestTimings timings = CURRENT.get();
+
+        if (timings != null) {
+            timings.auditStart = System.nanoTime();
+        }
+    }
+
+    public static void endAudit() {
+        RequestTimings timings = CURRENT.get();
+
+        if (timings != null && timings.auditStart >= 0) {
+            timings.auditNanos += System.nanoTime() - timings.auditStart;
+            timings.auditStart = -1;
+        }
+    }
+
+    /**
+     * @return The time since the call started, up to the audit phase in progress and not counting earlier ones
+     */
+    public double getHandlerMs() {
+        return millis((auditStart >= 0 ? auditStart : System.nanoTime()) - start - auditNanos);
+    }
+
+    public long getDbStatements() {
+        return dbStatements;
+    }
+
+    public double getDbMs() {
+        return millis(dbNanos);
+    }
+
+    public double getSerializationMs() {
+        return millis(serializationNanos);
+    }
+
+    /**
+     * @return The time spent on the audit log, including the phase in progress
+     */
+    public double getAuditMs() {
+        return millis(auditNanos + (auditStart >= 0 ? System.nanoTime() - auditStart : 0));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,123 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of serialized SCIM resources, keyed by resource type and ID
+ * Handlers that modify a resource must call {@link #invalidate(Class, String)} after writing it
+ * Hits, misses, evictions and the size are published as the cache meters tagged cache="scim.resources"
+ */
+@Component
+public class ScimResourceCache {
+    private final Cache<String, Entry> cache;
+    private final ObjectMapper mapper;
+    private final Timer serialization;
+
+    @Autowired
+    public ScimResourceCache(ObjectMapper mapper,
+                             MeterRegistry registry,
+                             @Value("${scim.cache.maximum-size:10000}") long maximumSize,
+                             @Value("${scim.cache.expire-after-write-seconds:300}") long expireAfterWrite) {
+        this.mapper = mapper;
+        this.serialization = registry.timer("scim.serialization", "stage", "resource");
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(registry, cache, "scim.resources");
+    }
+
+    /**
+     * Returns the JSON of a resource, loading and serializing it on a miss
+     * @param type The model class of the resource
+     * @param id The resource ID
+     * @param loader Loads the resource and returns its {@link #entry(String, ScimWriter)}, or returns null if it does not exist
+     * @return The cached resource, or null if the resource does not exist
+     */
+    public Entry get(Class<?> type, String id, Supplier<Entry> loader) {
+        return cache.get(key(type, id), k -> loader.get());
+    }
+
+    /**
+     * Serializes a resource for the cache, timed as the scim.serialization timer with stage "resource"
+     * @param version The entity tag of the resource, see {@link ETags}
+     * @param resource Writes the resource
+     * @return The resource to cache
+     */
+    public Entry entry(String version, ScimWriter resource) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        long start = System.nanoTime();
+
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            resource.write(gen);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            serialization.record(nanos, TimeUnit.NANOSECONDS);
+            RequestTimings.addSerialization(nanos);
+        }
+
+        return new Entry(version, out.toByteArray());
+    }
+
+    /**
+     * Drops a resource from the cache
+     * @param type The model class of the resource
+     * @param id The resource ID
+     */
+    public void invalidate(Class<?> type, String id) {
+        cache.invalidate(key(type, id));
+    }
+
+    /**
+     * A serialized resource and the version it was serialized at
+     */
+    public static class Entry {
+        /** The entity tag, for the ETag header */
+        public final String version;
+        /** The JSON of the resource */
+        public final byte[] json;
+
+        private Entry(String version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+
+    private static String key(Class<?> type, String id) {
+        return type.getSimpleName() + ":" + id;
+    }
+}
@@ -0,0 +1,17 @@
+-- Storage settings of the hsqldb-cached profile, HSQLDB keeps them in data.properties and data.script
+
+-- Tables created from now on keep their rows on disk
+SET DATABASE DEFAULT TABLE TYPE CACHED;
+
+-- Readers do not wait for writers, and writers only lock the rows they change instead of whole tables
+SET DATABASE TRANSACTION CONTROL MVCC;
+
+-- Checkpoint when data.log reaches 32MB, a smaller log is faster to replay after an unclean shutdown
+SET FILES LOG SIZE 32;
+
+-- Rows of CACHED tables kept in memory, and their total size in KB
+SET FILES CACHE ROWS 100000;
+SET FILES CACHE SIZE 65536;
+
+-- Compact data.data at checkpoint once 20% of it is free space, such as after a retention run
+SET FILES DEFRAG 20;
@@ -0,0 +1,168 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.okta.scim.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Group PATCH: the net member change it writes, and the version it reports when only members change
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"scim.retention.enabled=false", "scim.index-advisor.enabled=false"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+public class SingleGroupControllerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mvc;
+
+    private String alice;
+    private String bob;
+    private String location;
+
+    @Before
+    public void setUp() throws Exception {
+        alice = create("/scim/v2/Users", user("alice"));
+        bob = create("/scim/v2/Users", user("bob"));
+        location = "/scim/v2/Groups/" + create("/scim/v2/Groups",
+                "{\"displayName\": \"Admins\", \"members\": [{\"value\": \"" + alice + "\", \"display\": \"alice\"}]}");
+    }
+
+    @Test
+    public void memberChangeMovesTheVersion() throws Exception {
+        patchGroup(op("add", "members", member(bob)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""))
+                .andExpect(jsonPath("$.meta.version").value("W/\"1\""))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(alice, bob)));
+
+        mvc.perform(get(location))
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""))
+                .andExpect(jsonPath("$.displayName").value("Admins"))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(alice, bob)));
+    }
+
+    @Test
+    public void addThenRemoveWritesNothing() throws Exception {
+        patchGroup(op("add", "members", member(bob)), op("remove", "members[value eq \\\"" + bob + "\\\"]", null))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(alice)));
+
+        // Adding an existing member and removing a missing one are no changes either
+        patchGroup(op("add", "members", member(alice)), op("remove", "members", member(bob)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""));
+
+        mvc.perform(get(location))
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(alice)));
+    }
+
+    @Test
+    public void replaceAndRemoveKeepTheNetChange() throws Exception {
+        patchGroup(op("replace", "members", member(bob)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(bob)));
+
+        patchGroup(op("remove", "members", null))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"2\""));
+
+        mvc.perform(get(location))
+                .andExpect(jsonPath("$.members", empty()));
+    }
+
+    @Test
+    public void renameWithMembersIsOneVersion() throws Exception {
+        patchGroup(op("replace", "displayName", "\"Owners\""), op("add", "members", member(bob)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""));
+
+        mvc.perform(get(location))
+                .andExpect(jsonPath("$.displayName").value("Owners"))
+                .andExpect(jsonPath("$.members[*].display", containsInAnyOrder("alice", null)));
+    }
+
+    @Test
+    public void staleIfMatchChangesNothing() throws Exception {
+        mvc.perform(patch(location).header(HttpHeaders.IF_MATCH, "W/\"1\"")
+                .contentType("application/scim+json")
+                .content(body(op("add", "members", member(bob)))))
+                .andExpect(status().isPreconditionFailed());
+
+        mvc.perform(get(location))
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(jsonPath("$.members[*].value", containsInAnyOrder(alice)));
+    }
+
+    private ResultActions patchGroup(String... operations) throws Exception {
+        return mvc.perform(patch(location).contentType("application/scim+json").content(body(operations)));
+    }
+
+    private static String body(String... operations) {
+        return "{\"schemas\": [\"urn:ietf:params:scim:api:messages:2.0:PatchOp\"], "
+                + "\"Operations\": [" + String.join(", ", operations) + "]}";
+    }
+
+    private static String op(String op, String path, String value) {
+        return "{\"op\": \"" + op + "\", \"path\": \"" + path + "\"" + (value == null ? "" : ", \"value\": " + value) + "}";
+    }
+
+    private static String member(String userId) {
+        return "[{\"value\": \"" + userId + "\"}]";
+    }
+
+    private static String user(String givenName) {
+        return "{\"userName\": \"" + givenName + "-" + System.nanoTime() + "@example.com\", "
+                + "\"name\": {\"givenName\": \"" + givenName + "\"}}";
+    }
+
+    private String create(String path, String json) throws Exception {
+        String created = mvc.perform(post(path).contentType("application/scim+json").content(json))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+
+        return (String) mapper.readValue(created, Map.class).get("id");
+    }
+}
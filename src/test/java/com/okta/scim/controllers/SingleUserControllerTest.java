@@ -0,0 +1,141 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.okta.scim.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Versions of a single user: the ETag header, If-None-Match on GET and If-Match on PUT and PATCH
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"scim.retention.enabled=false", "scim.index-advisor.enabled=false"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+public class SingleUserControllerTest {
+    private static final String DEACTIVATE = "{\"schemas\": [\"urn:ietf:params:scim:api:messages:2.0:PatchOp\"], "
+            + "\"Operations\": [{\"op\": \"replace\", \"value\": {\"active\": false}}]}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mvc;
+
+    private String location;
+
+    @Before
+    public void setUp() throws Exception {
+        String json = mvc.perform(post("/scim/v2/Users")
+                .contentType("application/scim+json")
+                .content(user("etag-" + System.nanoTime() + "@example.com", "Alice")))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+
+        location = "/scim/v2/Users/" + mapper.readValue(json, Map.class).get("id");
+    }
+
+    @Test
+    public void getAnswersIfNoneMatchWithNotModified() throws Exception {
+        mvc.perform(get(location))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(jsonPath("$.meta.version").value("W/\"0\""));
+
+        mvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, "W/\"0\""))
+                .andExpect(status().isNotModified());
+
+        mvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, "W/\"7\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void putMovesTheVersion() throws Exception {
+        mvc.perform(put(location).header(HttpHeaders.IF_MATCH, "W/\"0\"")
+                .contentType("application/scim+json")
+                .content(user("etag-put-" + System.nanoTime() + "@example.com", "Bob")))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""));
+
+        // The cached response of the old version is gone
+        mvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, "W/\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""))
+                .andExpect(jsonPath("$.name.givenName").value("Bob"));
+    }
+
+    @Test
+    public void staleIfMatchIsPreconditionFailed() throws Exception {
+        mvc.perform(put(location).header(HttpHeaders.IF_MATCH, "W/\"3\"")
+                .contentType("application/scim+json")
+                .content(user("etag-stale-" + System.nanoTime() + "@example.com", "Bob")))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.status").value(412));
+
+        mvc.perform(patch(location).header(HttpHeaders.IF_MATCH, "W/\"3\", W/\"4\"")
+                .contentType("application/scim+json")
+                .content(DEACTIVATE))
+                .andExpect(status().isPreconditionFailed());
+
+        mvc.perform(get(location))
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(jsonPath("$.name.givenName").value("Alice"))
+                .andExpect(jsonPath("$.active").value(true));
+    }
+
+    @Test
+    public void matchingIfMatchApplies() throws Exception {
+        MvcResult result = mvc.perform(patch(location).header(HttpHeaders.IF_MATCH, "W/\"5\", \"0\"")
+                .contentType("application/scim+json")
+                .content(DEACTIVATE))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals("W/\"1\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+
+        mvc.perform(patch(location).header(HttpHeaders.IF_MATCH, "*")
+                .contentType("application/scim+json")
+                .content(DEACTIVATE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.active").value(false));
+    }
+
+    private static String user(String userName, String givenName) {
+        return "{\"userName\": \"" + userName + "\", \"active\": true, "
+                + "\"name\": {\"givenName\": \"" + givenName + "\", \"familyName\": \"Smith\"}}";
+    }
+}
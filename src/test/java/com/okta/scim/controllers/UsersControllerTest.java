@@ -0,0 +1,155 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.okta.scim.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Paging of the Users list by cursor and by startIndex, and totalResults as users are added
+ * The tests share one in-memory database, each only lists the users it created, by a userName prefix
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"scim.retention.enabled=false", "scim.index-advisor.enabled=false"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+public class UsersControllerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    public void cursorVisitsEveryUserOnceInIdOrder() throws Exception {
+        List<String> created = createUsers("cursor", 5);
+        created.sort(null);
+
+        List<String> seen = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = "";
+
+        do {
+            Map page = list("cursor", "&count=2&cursor=" + cursor);
+            List<Map> resources = (List<Map>) page.get("Resources");
+
+            assertEquals(5, page.get("totalResults"));
+            assertFalse(page.containsKey("startIndex"));
+            assertEquals(resources.size(), page.get("itemsPerPage"));
+
+            resources.forEach(r -> seen.add((String) r.get("id")));
+            pageSizes.add(resources.size());
+            cursor = (String) page.get("nextCursor");
+        } while (cursor != null);
+
+        assertEquals(created, seen);
+        assertEquals(3, pageSizes.size());
+        assertEquals(Integer.valueOf(1), pageSizes.get(2));
+    }
+
+    @Test
+    public void exactlyFullLastPageHasNoNextCursor() throws Exception {
+        createUsers("full", 3);
+
+        Map page = list("full", "&count=3&cursor=");
+
+        assertEquals(3, ((List) page.get("Resources")).size());
+        assertNull(page.get("nextCursor"));
+    }
+
+    @Test
+    public void invalidCursorIsRejected() throws Exception {
+        // "foo" in base64, and a value that is not base64 at all
+        for (String cursor : new String[]{"Zm9v", "not a cursor!"}) {
+            mvc.perform(get("/scim/v2/Users").param("cursor", cursor))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.status").value(400));
+        }
+    }
+
+    @Test
+    public void startIndexPagesByItem() throws Exception {
+        List<String> created = createUsers("offset", 4);
+        created.sort(null);
+
+        Map page = list("offset", "&startIndex=2&count=2");
+        List<Map> resources = (List<Map>) page.get("Resources");
+
+        assertEquals(2, page.get("startIndex"));
+        assertEquals(2, page.get("itemsPerPage"));
+        assertEquals(created.subList(1, 3), ids(resources));
+    }
+
+    @Test
+    public void totalResultsCountsNewUsers() throws Exception {
+        createUsers("counted", 2);
+        assertEquals(2, list("counted", "&count=0").get("totalResults"));
+
+        createUsers("counted", 1);
+        assertEquals(3, list("counted", "&count=0").get("totalResults"));
+    }
+
+    private Map list(String prefix, String query) throws Exception {
+        String filter = "userName sw \"" + prefix + "-\"";
+        String json = mvc.perform(get("/scim/v2/Users?filter={filter}" + query, filter))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        return mapper.readValue(json, Map.class);
+    }
+
+    private List<String> createUsers(String prefix, int count) throws Exception {
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            String userName = prefix + "-" + System.nanoTime() + "@example.com";
+            String json = mvc.perform(post("/scim/v2/Users")
+                    .contentType("application/scim+json")
+                    .content("{\"userName\": \"" + userName + "\", \"name\": {\"givenName\": \"A\", \"familyName\": \"B\"}}"))
+                    .andExpect(status().isCreated())
+                    .andReturn().getResponse().getContentAsString();
+
+            ids.add((String) mapper.readValue(json, Map.class).get("id"));
+        }
+
+        return ids;
+    }
+
+    private static List<String> ids(List<Map> resources) {
+        List<String> ids = new ArrayList<>();
+        resources.forEach(r -> ids.add((String) r.get("id")));
+        return ids;
+    }
+}
@@ -0,0 +1,72 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.User;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link CountCache} hits, invalidation per resource type, and counts that race with a write
+ */
+public class CountCacheTest {
+    private final CountCache cache = new CountCache(100);
+    private final AtomicLong queries = new AtomicLong();
+
+    @Test
+    public void cachesPerTypeAndFilter() {
+        assertEquals(3, cache.get(User.class, "all", () -> count(3)));
+        assertEquals(3, cache.get(User.class, "all", () -> count(4)));
+        assertEquals(1, cache.get(User.class, "active=true", () -> count(1)));
+        assertEquals(2, cache.get(Group.class, "all", () -> count(2)));
+        assertEquals(3, queries.get());
+    }
+
+    @Test
+    public void invalidateDropsOnlyItsType() {
+        cache.get(User.class, "all", () -> count(3));
+        cache.get(Group.class, "all", () -> count(2));
+
+        cache.invalidate(User.class);
+
+        assertEquals(4, cache.get(User.class, "all", () -> count(4)));
+        assertEquals(2, cache.get(Group.class, "all", () -> count(5)));
+        assertEquals(3, queries.get());
+    }
+
+    @Test
+    public void countRacingAWriteIsNotKept() {
+        // The write lands while the count query runs, the result may already be stale
+        long raced = cache.get(User.class, "all", () -> {
+            cache.invalidate(User.class);
+            return count(3);
+        });
+
+        assertEquals(3, raced);
+        assertEquals(4, cache.get(User.class, "all", () -> count(4)));
+        assertEquals(4, cache.get(User.class, "all", () -> count(5)));
+    }
+
+    private long count(long value) {
+        queries.incrementAndGet();
+        return value;
+    }
+}
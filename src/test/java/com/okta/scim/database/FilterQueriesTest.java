@@ -0,0 +1,224 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Group;
+import com.okta.scim.models.GroupMembership;
+import com.okta.scim.models.User;
+import com.okta.scim.utils.InvalidFilterException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link FilterQueries} against an in-memory database, each filter is checked by the IDs it returns
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = FilterQueriesTest.Config.class)
+public class FilterQueriesTest {
+    /**
+     * Only the entities and {@link FilterQueries}, the application's dispatcher needs the web context
+     */
+    @Configuration
+    @EnableAutoConfiguration
+    @EntityScan(basePackageClasses = User.class)
+    @Import(FilterQueries.class)
+    static class Config {
+    }
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private FilterQueries queries;
+
+    @Before
+    public void setUp() {
+        user("u1", "alice@example.com", "Alice", "Smith", true);
+        user("u2", "bob@example.com", "Bob", "Smith", false);
+        user("u3", "carol@example.org", "Carol", null, true);
+        user("u4", "dave_50%@example.com", "Dave", "Jones", true);
+        group("g1", "Admins");
+        group("g2", "Everyone");
+        member("g1", "Admins", "u1", "alice@example.com");
+        member("g2", "Everyone", "u1", "alice@example.com");
+        member("g2", "Everyone", "u2", "bob@example.com");
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    public void comparisons() {
+        assertUsers("userName eq \"bob@example.com\"", "u2");
+        assertUsers("userName ne \"bob@example.com\"", "u1", "u3", "u4");
+        assertUsers("userName sw \"c\"", "u3");
+        assertUsers("userName ew \".org\"", "u3");
+        assertUsers("name.familyName co \"mit\"", "u1", "u2");
+        assertUsers("userName gt \"bob@example.com\"", "u3", "u4");
+        assertUsers("userName le \"bob@example.com\"", "u1", "u2");
+    }
+
+    @Test
+    public void likeWildcardsInValuesAreLiteral() {
+        assertUsers("userName co \"_50%\"", "u4");
+        assertUsers("userName co \"%\"", "u4");
+        assertUsers("userName sw \"_\"");
+    }
+
+    @Test
+    public void nullAndPresence() {
+        assertUsers("name.familyName pr", "u1", "u2", "u4");
+        assertUsers("familyName eq null", "u3");
+        // ne also matches resources without the attribute
+        assertUsers("familyName ne \"Smith\"", "u3", "u4");
+    }
+
+    @Test
+    public void booleans() {
+        assertUsers("active eq true", "u1", "u3", "u4");
+        assertUsers("active eq \"false\"", "u2");
+    }
+
+    @Test
+    public void andBindsTighterThanOr() {
+        assertUsers("userName sw \"c\" or familyName eq \"Smith\" and active eq false", "u2", "u3");
+        assertUsers("(userName sw \"c\" or familyName eq \"Smith\") and active eq false", "u2");
+    }
+
+    @Test
+    public void not() {
+        assertUsers("not (familyName eq \"Smith\")", "u3", "u4");
+        assertUsers("not (active eq true) or userName sw \"c\"", "u2", "u3");
+        assertUsers("not (not (active eq false))", "u2");
+    }
+
+    @Test
+    public void emailValuePaths() {
+        assertUsers("emails[type eq \"work\" and value ew \".org\"]", "u3");
+        assertUsers("emails[type eq \"home\"]");
+        assertUsers("emails[primary eq true] and givenName eq \"Bob\"", "u2");
+        assertUsers("emails.value sw \"a\"", "u1");
+    }
+
+    @Test
+    public void membershipFilters() {
+        assertUsers("groups[value eq \"g1\"]", "u1");
+        assertUsers("groups.display eq \"Everyone\"", "u1", "u2");
+        assertUsers("groups eq \"g2\" and not (groups eq \"g1\")", "u2");
+        assertUsers("groups pr", "u1", "u2");
+        assertGroups("members[value eq \"u2\"]", "g2");
+        assertGroups("members.display sw \"alice\"", "g1", "g2");
+        assertGroups("displayName eq \"Admins\" or members eq \"u2\"", "g1", "g2");
+    }
+
+    @Test
+    public void countMatchesFind() {
+        assertEquals(2, queries.count(User.class, queries.parse("groups pr")));
+        assertEquals(4, queries.count(User.class, null));
+        assertEquals(1, queries.count(Group.class, queries.parse("members[value eq \"u2\"]")));
+    }
+
+    @Test
+    public void pagesByOffsetAndId() {
+        assertEquals(Arrays.asList("u2", "u3"), ids(queries.find(User.class, null, null, 1, 2)));
+        assertEquals(Arrays.asList("u3", "u4"), ids(queries.find(User.class, null, "u2", 0, 10)));
+
+        try (Stream<User> users = queries.stream(User.class, queries.parse("active eq true"), "u1", 0, 10)) {
+            assertEquals(Arrays.asList("u3", "u4"), users.map(u -> u.id).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void unsupportedFiltersAreInvalid() {
+        assertInvalid(User.class, "userName like \"a\"");
+        assertInvalid(User.class, "title eq \"a\"");
+        assertInvalid(User.class, "active gt true");
+        assertInvalid(User.class, "active eq 1");
+        assertInvalid(User.class, "userName lt null");
+        assertInvalid(User.class, "emails.type co 1");
+        assertInvalid(Group.class, "userName eq \"a\"");
+        assertInvalid(Group.class, "members[type eq \"User\"]");
+    }
+
+    private void assertUsers(String filter, String... ids) {
+        assertEquals(filter, Arrays.asList(ids), ids(queries.find(User.class, queries.parse(filter), null, 0, 100)));
+    }
+
+    private void assertGroups(String filter, String... ids) {
+        assertEquals(filter, Arrays.asList(ids), ids(queries.find(Group.class, queries.parse(filter), null, 0, 100)));
+    }
+
+    private void assertInvalid(Class<?> type, String filter) {
+        try {
+            queries.count(type, queries.parse(filter));
+            fail("Expected '" + filter + "' to be invalid");
+        } catch (InvalidFilterException e) {
+            // expected
+        }
+    }
+
+    private static List<String> ids(List<?> resources) {
+        return resources.stream()
+                .map(r -> r instanceof User ? ((User) r).id : ((Group) r).id)
+                .collect(Collectors.toList());
+    }
+
+    private void user(String id, String userName, String givenName, String familyName, boolean active) {
+        User user = new User();
+        user.id = id;
+        user.userName = userName;
+        user.givenName = givenName;
+        user.familyName = familyName;
+        user.active = active;
+        em.persist(user);
+    }
+
+    private void group(String id, String displayName) {
+        Group group = new Group();
+        group.id = id;
+        group.displayName = displayName;
+        em.persist(group);
+    }
+
+    private void member(String groupId, String groupDisplay, String userId, String userDisplay) {
+        GroupMembership gm = new GroupMembership();
+        gm.id = groupId + "-" + userId;
+        gm.groupId = groupId;
+        gm.groupDisplay = groupDisplay;
+        gm.userId = userId;
+        gm.userDisplay = userDisplay;
+        em.persist(gm);
+    }
+}
@@ -0,0 +1,150 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.okta.scim.database;
+
+import com.okta.scim.models.Transaction;
+import com.okta.scim.utils.OffsetPageRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The transaction log page of the dashboard, read by item offset through {@link OffsetPageRequest}
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = TransactionDatabaseTest.Config.class)
+public class TransactionDatabaseTest {
+    /**
+     * Only the entities and repositories, the application's dispatcher needs the web context
+     */
+    @Configuration
+    @EnableAutoConfiguration
+    @EntityScan(basePackageClasses = Transaction.class)
+    static class Config {
+    }
+
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "timeStamp");
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private TransactionDatabase tDb;
+
+    @Before
+    public void setUp() {
+        for (int i = 1; i <= 7; i++) {
+            boolean bodies = i != 4;
+            transaction("t" + i, "2018-01-01 00:00:0" + i, bodies ? "{}" : "[unknown]", bodies ? "{}" : "[unknown]");
+        }
+        transaction("t8", "2018-01-01 00:00:08", "[unknown]", "{}");
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    public void offsetNeedNotBeAMultipleOfTheSize() {
+        Page<TransactionDatabase.Summary> page = tDb.findSummaries(new OffsetPageRequest(3, 2, NEWEST_FIRST));
+
+        assertEquals(Arrays.asList("t5", "t4"), ids(page.getContent()));
+        assertEquals(8, page.getTotalElements());
+    }
+
+    @Test
+    public void lastPageIsShort() {
+        Page<TransactionDatabase.Summary> page = tDb.findSummaries(new OffsetPageRequest(6, 5, NEWEST_FIRST));
+
+        assertEquals(Arrays.asList("t2", "t1"), ids(page.getContent()));
+        assertEquals(8, page.getTotalElements());
+    }
+
+    @Test
+    public void neighbouringPagesKeepTheOffsetAndSize() {
+        Pageable page = new OffsetPageRequest(3, 2, NEWEST_FIRST);
+
+        assertEquals(5, page.next().getOffset());
+        assertEquals(1, page.previousOrFirst().getOffset());
+        assertEquals(0, new OffsetPageRequest(1, 2).previousOrFirst().getOffset());
+        assertEquals(0, page.first().getOffset());
+        assertEquals(2, page.next().getPageSize());
+        assertEquals(NEWEST_FIRST, page.next().getSort());
+    }
+
+    @Test
+    public void rejectsInvalidPages() {
+        try {
+            new OffsetPageRequest(-1, 2);
+            fail("Expected a negative offset to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            new OffsetPageRequest(0, 0);
+            fail("Expected an empty page to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void summariesTellWhetherBodiesWereCaptured() {
+        List<TransactionDatabase.Summary> page = tDb.findSummaries(new OffsetPageRequest(0, 5, NEWEST_FIRST)).getContent();
+
+        assertEquals(Arrays.asList("t8", "t7", "t6", "t5", "t4"), ids(page));
+        assertTrue(page.get(0).getHasBodies());
+        assertTrue(page.get(1).getHasBodies());
+        assertFalse(page.get(4).getHasBodies());
+    }
+
+    private static List<String> ids(List<TransactionDatabase.Summary> summaries) {
+        return summaries.stream().map(TransactionDatabase.Summary::getId).collect(Collectors.toList());
+    }
+
+    private void transaction(String id, String timeStamp, String requestBody, String responseBody) {
+        Transaction transaction = new Transaction()
+                .setId(id)
+                .setTimestamp(timeStamp)
+                .setHttpCode(200)
+                .setMethod("GET")
+                .setEndpoint("/scim/v2/Users")
+                .setRequestBody(requestBody)
+                .setResponseBody(responseBody);
+        em.persist(transaction);
+    }
+}
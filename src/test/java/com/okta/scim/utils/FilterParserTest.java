@@ -0,0 +1,162 @@
+/** Copyright © 2018, Okta, Inc.
+ *
+ *  Licensed under the MIT license, the "License";
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.okta.scim.utils;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link FilterParser}, checked through the canonical form of {@link Filter#toString()}
+ */
+public class FilterParserTest {
+    @Test
+    public void andBindsTighterThanOr() {
+        assertEquals("(username eq \"a\" or (active eq true and displayname pr))",
+                Filter.parse("userName eq \"a\" or active eq true and displayName pr").toString());
+        assertEquals("((username eq \"a\" and active eq true) or displayname pr)",
+                Filter.parse("userName eq \"a\" and active eq true or displayName pr").toString());
+    }
+
+    @Test
+    public void parenthesesOverridePrecedence() {
+        assertEquals("((username eq \"a\" or username eq \"b\") and active eq true)",
+                Filter.parse("(userName eq \"a\" or userName eq \"b\") and active eq true").toString());
+    }
+
+    @Test
+    public void sameOperatorGroupsToTheLeft() {
+        assertEquals("((id eq \"1\" or id eq \"2\") or id eq \"3\")",
+                Filter.parse("id eq \"1\" or id eq \"2\" or id eq \"3\"").toString());
+    }
+
+    @Test
+    public void not() {
+        Filter filter = Filter.parse("not (userName sw \"a\" or active eq false) and id pr");
+
+        assertEquals("(not ((username sw \"a\" or active eq false)) and id pr)", filter.toString());
+        assertTrue(((Filter.Logical) filter).left instanceof Filter.Not);
+    }
+
+    @Test
+    public void notNeedsParentheses() {
+        assertInvalid("not userName eq \"a\"");
+    }
+
+    @Test
+    public void valuePath() {
+        Filter filter = Filter.parse("emails[type eq \"work\" and value co \"@example.com\"]");
+
+        assertTrue(filter instanceof Filter.ValuePath);
+        assertEquals("emails", ((Filter.ValuePath) filter).attribute);
+        assertEquals("emails[(type eq \"work\" and value co \"@example.com\")]", filter.toString());
+    }
+
+    @Test
+    public void valuePathInLogicalExpression() {
+        assertEquals("(members[value eq \"1\"] or displayname eq \"x\")",
+                Filter.parse("members[value eq \"1\"] or displayName eq \"x\"").toString());
+    }
+
+    @Test
+    public void nestedValuePathIsInvalid() {
+        assertInvalid("emails[type[value eq \"x\"] pr]");
+    }
+
+    @Test
+    public void unterminatedValuePathIsInvalid() {
+        assertInvalid("emails[type eq \"work\"");
+    }
+
+    @Test
+    public void keywordsOperatorsAndAttributesAreCaseInsensitive() {
+        assertEquals(Filter.parse("userName eq \"Alice\" and active eq true").toString(),
+                Filter.parse("USERNAME EQ \"Alice\" AND Active Eq TRUE").toString());
+    }
+
+    @Test
+    public void schemaUrnPrefixIsDropped() {
+        assertEquals("username eq \"a\"",
+                Filter.parse("urn:ietf:params:scim:schemas:core:2.0:User:userName eq \"a\"").toString());
+    }
+
+    @Test
+    public void values() {
+        assertEquals(Boolean.FALSE, comparison("active eq false").value);
+        assertEquals(new BigDecimal("42.5"), comparison("count gt 42.5").value);
+        assertNull(comparison("middleName eq null").value);
+        assertEquals("a \"quoted\" \\ value", comparison("userName eq \"a \\\"quoted\\\" \\\\ value\"").value);
+    }
+
+    @Test
+    public void unicodeEscapes() {
+        assertEquals("caf\u00e9", comparison("userName eq \"caf\\u00e9\"").value);
+        assertEquals("\u00e9\u00e8", comparison("userName eq \"\\u00E9\\u00e8\"").value);
+        assertEquals("a\tb\nc", comparison("userName eq \"a\\tb\\nc\"").value);
+    }
+
+    @Test
+    public void truncatedUnicodeEscapeIsInvalid() {
+        assertInvalid("userName eq \"caf\\u00e\"");
+        assertInvalid("userName eq \"\\u12\"");
+    }
+
+    @Test
+    public void nonHexUnicodeEscapeIsInvalid() {
+        assertInvalid("userName eq \"\\u00zz\"");
+    }
+
+    @Test
+    public void unterminatedStringIsInvalid() {
+        assertInvalid("userName eq \"alice");
+        assertInvalid("userName eq \"alice\\\"");
+    }
+
+    @Test
+    public void unknownOperatorIsInvalid() {
+        assertInvalid("userName like \"a\"");
+        assertInvalid("userName equals \"a\"");
+    }
+
+    @Test
+    public void incompleteExpressionsAreInvalid() {
+        assertInvalid("userName");
+        assertInvalid("userName eq");
+        assertInvalid("userName eq \"a\" and");
+        assertInvalid("(userName eq \"a\"");
+        assertInvalid("userName eq \"a\")");
+        assertInvalid("userName eq alice");
+        assertInvalid("1userName eq \"a\"");
+    }
+
+    private static Filter.Comparison comparison(String filter) {
+        return (Filter.Comparison) Filter.parse(filter);
+    }
+
+    private static void assertInvalid(String filter) {
+        try {
+            Filter.parse(filter);
+            fail("Expected '" + filter + "' to be invalid");
+        } catch (InvalidFilterException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("in filter '" + filter + "'"));
+        }
+    }
+}